@@ -0,0 +1,74 @@
+package com.noah.bscript.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Sources shared by the benchmarks: the scripts/ corpus plus synthetic
+ * inputs that stress one thing each.
+ */
+public final class BBenchmarkSources {
+
+    private BBenchmarkSources() {}
+
+    /**
+     * @param name a path in the scripts/ corpus, or "synthetic:" followed by the name of a generated input
+     * @return the source code
+     */
+    public static String source(String name) {
+        if (name.startsWith("synthetic:")) return synthetic(name.substring("synthetic:".length()));
+
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)), StandardCharsets.UTF_8);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private static String synthetic(String name) {
+        switch (name) {
+            case "deep": return deepExpression(500);
+            case "loop": return longLoop(100_000);
+            case "strings": return stringBuilding(10_000);
+            case "large": return largeScript(5_000);
+        }
+        throw new IllegalArgumentException("Unknown synthetic source: " + name);
+    }
+
+    private static String deepExpression(int depth) {
+        StringBuilder builder = new StringBuilder("let x = 1;\nprint ");
+        for (int i = 0; i < depth; i++) builder.append("(x + ");
+        builder.append("x");
+        for (int i = 0; i < depth; i++) builder.append(")");
+        return builder.append(";\n").toString();
+    }
+
+    private static String longLoop(int iterations) {
+        return "let total = 0;\n"
+                + "for (let i = 0; i < " + iterations + "; i = i + 1) {\n"
+                + "    total = total + i * 2 - 1;\n"
+                + "}\n"
+                + "print total;\n";
+    }
+
+    private static String stringBuilding(int iterations) {
+        return "let text = \"\";\n"
+                + "for (let i = 0; i < " + iterations + "; i = i + 1) {\n"
+                + "    text = text + \"x\";\n"
+                + "}\n"
+                + "print text;\n";
+    }
+
+    private static String largeScript(int statements) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < statements; i++) {
+            builder.append("let v").append(i).append(" = ").append(i).append(" * 2 + 1;\n");
+            builder.append("if (v").append(i).append(" > 10 and v").append(i).append(" < 100) { print \"value \" + v").append(i).append("; }\n");
+        }
+        return builder.toString();
+    }
+
+}
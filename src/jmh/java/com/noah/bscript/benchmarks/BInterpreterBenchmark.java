@@ -0,0 +1,48 @@
+package com.noah.bscript.benchmarks;
+
+import com.noah.bscript.BContext;
+import com.noah.bscript.BScript;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.runtime.BInterpreter;
+import com.noah.bscript.runtime.BLexer;
+import com.noah.bscript.runtime.BOptimizer;
+import com.noah.bscript.runtime.BParser;
+import com.noah.bscript.runtime.BResolver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class BInterpreterBenchmark {
+
+    @Param({
+            "scripts/scoping.bscript",
+            "scripts/control.bscript",
+            "scripts/loop.bscript",
+            "synthetic:deep",
+            "synthetic:loop",
+            "synthetic:strings"
+    })
+    public String script;
+
+    private List<BStatement> statements;
+
+    @Setup
+    public void setup() {
+        BScript owner = new BScript(new File(this.script));
+        BLexer lexer = new BLexer(owner, BBenchmarkSources.source(this.script));
+        this.statements = new BOptimizer().optimize(new BParser(owner, lexer.tokenize()).parse());
+        new BResolver().resolve(this.statements);
+    }
+
+    @Benchmark
+    public BContext interpret() {
+        // keep print statements from measuring the terminal
+        BContext context = new BContext(BOutputSink.DISCARD);
+        new BInterpreter(context, this.statements).interpret();
+        return context;
+    }
+
+}
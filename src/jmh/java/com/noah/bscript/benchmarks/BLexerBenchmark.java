@@ -0,0 +1,42 @@
+package com.noah.bscript.benchmarks;
+
+import com.noah.bscript.BScript;
+import com.noah.bscript.lang.BToken;
+import com.noah.bscript.lang.BTokenBuffer;
+import com.noah.bscript.runtime.BLexer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class BLexerBenchmark {
+
+    @Param({
+            "scripts/scoping.bscript",
+            "scripts/loop.bscript",
+            "synthetic:deep",
+            "synthetic:large"
+    })
+    public String script;
+
+    private BScript owner;
+    private String source;
+
+    @Setup
+    public void setup() {
+        this.owner = new BScript(new File(this.script));
+        this.source = BBenchmarkSources.source(this.script);
+    }
+
+    @Benchmark
+    public List<BToken> tokenize() {
+        return new BLexer(this.owner, this.source).tokenize();
+    }
+
+    @Benchmark
+    public BTokenBuffer tokenizeBuffer() {
+        return new BLexer(this.owner, this.source).tokenizeBuffer();
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.noah.bscript.benchmarks;
+
+import com.noah.bscript.BScript;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+import com.noah.bscript.runtime.BLexer;
+import com.noah.bscript.runtime.BParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class BParserBenchmark {
+
+    @Param({
+            "scripts/scoping.bscript",
+            "scripts/loop.bscript",
+            "synthetic:deep",
+            "synthetic:large"
+    })
+    public String script;
+
+    private BScript owner;
+    private String source;
+    private List<BToken> tokens;
+
+    @Setup
+    public void setup() {
+        this.owner = new BScript(new File(this.script));
+        this.source = BBenchmarkSources.source(this.script);
+        this.tokens = new BLexer(this.owner, this.source).tokenize();
+    }
+
+    @Benchmark
+    public List<BStatement> parse() {
+        return new BParser(this.owner, this.tokens).parse();
+    }
+
+    @Benchmark
+    public List<BStatement> lexAndParseBuffer() {
+        BLexer lexer = new BLexer(this.owner, this.source);
+        return new BParser(this.owner, lexer.tokenizeBuffer()).parse();
+    }
+
+    @Benchmark
+    public List<BStatement> lexAndParseStreaming() {
+        BLexer lexer = new BLexer(this.owner, new StringReader(this.source));
+        return new BParser(this.owner, lexer).parse();
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.noah.bscript;
+
+import com.noah.bscript.lang.BToken;
+import com.noah.bscript.metrics.BEngineMetrics;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.output.BPrintStreamSink;
+import com.noah.bscript.profiler.BProfiler;
+import com.noah.bscript.runtime.BEnvironment;
+import com.noah.bscript.runtime.BOperations;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * The state of a single run of a {@link BProgram}: its global variables,
+ * where print statements write to and whether it failed. Contexts are cheap
+ * to create and are not meant to be shared between threads.
+ */
+public class BContext {
+
+    @Getter private final BEnvironment globals;
+    @Getter private final BOutputSink out;
+    @Getter private boolean failed;
+
+    /**
+     * How much more work the run may do, every loop iteration, block and
+     * function call uses one unit on every backend that counts it. It is
+     * unlimited unless it is set.
+     */
+    @Getter @Setter private long fuel = Long.MAX_VALUE;
+
+    /**
+     * The profiler the run reports to, or null if it is not profiled
+     */
+    @Getter @Setter private BProfiler profiler;
+
+    /**
+     * The metrics the run is counted in, or null if it is not counted
+     */
+    @Getter @Setter private BEngineMetrics metrics;
+
+    public BContext() {
+        this(System.out);
+    }
+
+    public BContext(PrintStream out) {
+        this(new BEnvironment(), new BPrintStreamSink(out));
+    }
+
+    public BContext(BOutputSink out) {
+        this(new BEnvironment(), out);
+    }
+
+    public BContext(BEnvironment globals, BOutputSink out) {
+        this.globals = globals;
+        this.out = out;
+    }
+
+    public boolean isFuelLimited() {
+        return this.fuel != Long.MAX_VALUE;
+    }
+
+    public void define(String name, Object value) {
+        this.globals.define(name, value);
+    }
+
+    /**
+     * @param name the name of a global variable
+     * @return the value of the variable, or null if it is not defined
+     */
+    public Object get(String name) {
+        return BOperations.toJava(this.globals.get(name));
+    }
+
+    /**
+     * Report a runtime error of the program that is being run
+     *
+     * @param file the {@link File} of the program
+     * @param token the {@link BToken} the error happened at, or null if it did not happen at one
+     * @param message the error message
+     */
+    public void error(File file, BToken token, String message) {
+        this.failed = true;
+        if (token == null) this.out.print(String.format("In %s - '%s'", file.getPath(), message));
+        else this.out.print(String.format("In %s:%d - '%s' at '%s'", file.getPath(), token.getPosition(), message, token.getLexeme()));
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.noah.bscript;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+
+/**
+ * An error found while loading a script
+ */
+@AllArgsConstructor
+@Getter
+public class BDiagnostic {
+
+    private File file;
+    private int line;
+    private String location;
+    private String message;
+
+    @Override
+    public String toString() {
+        return String.format("In %s:%d - '%s' %s", this.file.getPath(), this.line, this.message, this.location);
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.noah.bscript;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of loading a directory of scripts with {@link BScriptEngine#loadAll}
+ */
+@AllArgsConstructor
+@Getter
+public class BLoadResult {
+
+    /**
+     * The scripts that loaded, by file
+     */
+    private Map<File, BScript> scripts;
+
+    /**
+     * The errors of every script that failed to load, by file
+     */
+    private Map<File, List<BDiagnostic>> failures;
+
+    public boolean isSuccessful() {
+        return this.failures.isEmpty();
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.noah.bscript;
+
+import com.noah.bscript.events.BRunEvent;
+import com.noah.bscript.exceptions.BCompileException;
+import com.noah.bscript.exceptions.BOutOfFuelException;
+import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.jit.BCompiledScript;
+import com.noah.bscript.jit.BJitCompiler;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.metrics.BEngineMetrics;
+import com.noah.bscript.profiler.BProfiler;
+import com.noah.bscript.runtime.BInterpreter;
+import com.noah.bscript.vm.BChunk;
+import com.noah.bscript.vm.BCompiler;
+import com.noah.bscript.vm.BVirtualMachine;
+import lombok.Getter;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A parsed and resolved script. A program holds no state of its own runs,
+ * so one instance can be run from many threads at the same time, each with
+ * its own {@link BContext}.
+ * <p>
+ * The only thing that changes after loading are the specialized operations
+ * of binary nodes. Those are stateless singletons and every one of them
+ * checks its operands, so a thread that sees an older operation still gets
+ * the right result.
+ */
+public class BProgram {
+
+    @Getter private final File file;
+    @Getter private final List<BStatement> statements;
+
+    /**
+     * The amount of nodes the {@link com.noah.bscript.runtime.BOptimizer}
+     * removed from the statements, 0 if the program was not optimized when it
+     * was loaded, like programs read from a .bsc file
+     */
+    @Getter private final int eliminated;
+
+    private volatile BChunk chunk;
+    private volatile BCompiledScript compiled;
+    private volatile boolean chunkFailed;
+    private volatile boolean compiledFailed;
+
+    /**
+     * @param file the {@link File} the statements were parsed from
+     * @param statements the parsed and resolved statements
+     */
+    public BProgram(File file, List<BStatement> statements) {
+        this(file, statements, 0);
+    }
+
+    /**
+     * @param file the {@link File} the statements were parsed from
+     * @param statements the parsed, optimized and resolved statements
+     * @param eliminated the amount of nodes the optimizer removed
+     */
+    public BProgram(File file, List<BStatement> statements, int eliminated) {
+        this.file = file;
+        this.statements = Collections.unmodifiableList(statements);
+        this.eliminated = eliminated;
+    }
+
+    public void run(BContext context) {
+        this.run(BScript.Backend.INTERPRETER, context);
+    }
+
+    /**
+     * Run the program, falling back to the interpreter if it cannot be
+     * compiled for the backend. Generated JVM classes do not count fuel, so
+     * a run with limited fuel uses the virtual machine instead. Only the
+     * interpreter reports to profilers, so profiled runs always use it. The
+     * output sink of the context is flushed once the run is over.
+     *
+     * @param backend the {@link BScript.Backend} to run with
+     * @param context the {@link BContext} of this run
+     */
+    public void run(BScript.Backend backend, BContext context) {
+        if (backend == BScript.Backend.JVM && context.isFuelLimited()) backend = BScript.Backend.VIRTUAL_MACHINE;
+        if (context.getProfiler() != null) backend = BScript.Backend.INTERPRETER;
+
+        Run run = this.start(context);
+        run.resume();
+
+        BInterpreter interpreter = null;
+        boolean failed = false;
+        try {
+            switch (backend) {
+                case VIRTUAL_MACHINE:
+                    BChunk chunk = this.getChunk();
+                    if (chunk != null) {
+                        if (!new BVirtualMachine(context, chunk).interpret()) throw new BOutOfFuelException();
+                        return;
+                    }
+                    break;
+                case JVM:
+                    BCompiledScript compiled = this.compiled != null ? this.compiled : this.compiled();
+                    if (compiled != null) {
+                        compiled.run(context.getGlobals(), context.getOut());
+                        return;
+                    }
+                    break;
+            }
+
+            backend = BScript.Backend.INTERPRETER;
+            interpreter = new BInterpreter(context, this.statements, run.recorder);
+            interpreter.interpret();
+        } catch (BRuntimeException exception) {
+            failed = true;
+            context.error(this.file, exception.getToken(), exception.getMessage());
+        } finally {
+            run.finish(backend, interpreter != null ? interpreter.getExecuted() : 0, failed);
+        }
+    }
+
+    /**
+     * Start the bookkeeping of a run that is made outside of
+     * {@link #run(BScript.Backend, BContext)}, such as the slices of a
+     * {@link BScheduler}. It has to be finished once the run is over.
+     *
+     * @param context the {@link BContext} of the run
+     * @return the {@link Run}
+     */
+    Run start(BContext context) {
+        return new Run(context);
+    }
+
+    /**
+     * @return the program compiled for the virtual machine, or null if it cannot be
+     */
+    BChunk getChunk() {
+        return this.chunk != null ? this.chunk : this.chunk();
+    }
+
+    private synchronized BChunk chunk() {
+        if (this.chunk == null && !this.chunkFailed) {
+            this.chunk = compile(() -> new BCompiler().compile(this.statements));
+            this.chunkFailed = this.chunk == null;
+        }
+        return this.chunk;
+    }
+
+    private synchronized BCompiledScript compiled() {
+        if (this.compiled == null && !this.compiledFailed) {
+            this.compiled = compile(() -> new BJitCompiler().compile(this.statements));
+            this.compiledFailed = this.compiled == null;
+        }
+        return this.compiled;
+    }
+
+    /**
+     * @param compiler the compiler of a backend
+     * @return the compiled program, or null if it has to be interpreted instead
+     */
+    private static <T> T compile(Supplier<T> compiler) {
+        try {
+            return compiler.get();
+        } catch (BCompileException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * The bookkeeping of one run: its profiler recording, its metrics and
+     * its Flight Recorder event. A run that is paused and continued on other
+     * threads, like the ones of a {@link BScheduler}, only counts the time
+     * and the allocations of the threads while they ran it.
+     */
+    final class Run {
+
+        private final BContext context;
+        private final BProfiler.Recorder recorder;
+        private final BEngineMetrics metrics;
+        private final BRunEvent event = new BRunEvent();
+
+        private long time;
+        private long allocation;
+        private long resumed;
+        private long allocated;
+
+        private Run(BContext context) {
+            this.context = context;
+            this.recorder = context.getProfiler() != null ? context.getProfiler().start(BProgram.this.file) : null;
+            this.metrics = context.getMetrics();
+            this.event.begin();
+        }
+
+        /**
+         * The run continues on the current thread
+         */
+        void resume() {
+            if (this.metrics == null) return;
+            this.resumed = System.nanoTime();
+            this.allocated = BEngineMetrics.allocatedBytes();
+        }
+
+        /**
+         * The run stops on the current thread until it is resumed
+         */
+        void pause() {
+            if (this.metrics == null) return;
+            this.time += System.nanoTime() - this.resumed;
+
+            long allocated = this.allocated < 0 ? -1 : BEngineMetrics.allocatedBytes();
+            this.allocation = this.allocation < 0 || allocated < 0 ? -1 : this.allocation + allocated - this.allocated;
+        }
+
+        /**
+         * The run is over on the current thread. The output sink of the
+         * context is flushed and the run is reported.
+         *
+         * @param backend the {@link BScript.Backend} the program ran with
+         * @param statements the amount of statements that were executed
+         * @param failed whether the run failed
+         */
+        void finish(BScript.Backend backend, long statements, boolean failed) {
+            if (this.recorder != null) this.recorder.finish();
+            this.context.getOut().flush();
+
+            this.pause();
+            if (this.metrics != null) this.metrics.ran(BProgram.this.file, this.time, this.allocation, statements, failed);
+
+            this.event.end();
+            if (this.event.shouldCommit()) {
+                this.event.setPath(BProgram.this.file.getPath());
+                this.event.setBackend(backend.name());
+                this.event.setStatements(BProgram.this.statements.size());
+                this.event.setFailed(failed);
+                this.event.commit();
+            }
+        }
+
+    }
+
+}
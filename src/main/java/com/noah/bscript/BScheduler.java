@@ -0,0 +1,176 @@
+package com.noah.bscript;
+
+import com.noah.bscript.exceptions.BOutOfFuelException;
+import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.exceptions.BScriptException;
+import com.noah.bscript.vm.BChunk;
+import com.noah.bscript.vm.BVirtualMachine;
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs many programs on a fixed number of threads. A program runs for one
+ * slice of fuel at a time on the virtual machine, then it is paused and put
+ * at the back of the queue, so a script that loops forever only ever takes
+ * its share of the threads.
+ * <p>
+ * Programs that cannot be compiled for the virtual machine, and runs that
+ * are profiled, are interpreted in one go. Nothing can pause them, so they
+ * are only accepted with limited fuel and stop once it runs out.
+ */
+public class BScheduler implements AutoCloseable {
+
+    public static final long DEFAULT_SLICE = 10_000;
+
+    private final ExecutorService executor;
+    @Getter private final long slice;
+    private volatile boolean closed;
+
+    public BScheduler(int threads) {
+        this(threads, DEFAULT_SLICE);
+    }
+
+    /**
+     * @param threads the amount of threads programs run on
+     * @param slice the fuel a program may use before it is paused
+     */
+    public BScheduler(int threads, long slice) {
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bscript-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.slice = slice;
+    }
+
+    /**
+     * Queue a program to be run
+     *
+     * @param program the {@link BProgram}
+     * @param context the {@link BContext} of the run, its fuel is the budget of the whole run
+     * @return a future of the context, completed once the run is over
+     * @throws BScriptException if the run has to be interpreted and its fuel is not limited
+     */
+    public CompletableFuture<BContext> submit(BProgram program, BContext context) {
+        if (!context.isFuelLimited() && (context.getProfiler() != null || program.getChunk() == null))
+            throw new BScriptException("Cannot schedule " + program.getFile().getPath() + " without a fuel limit, it has to be interpreted and cannot be paused.");
+
+        Task task = new Task(program, context);
+        this.executor.execute(task);
+        return task.future;
+    }
+
+    /**
+     * Stop accepting programs, runs that are still queued are cancelled and
+     * runs that are in a slice are cancelled once it is over
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Runnable task : this.executor.shutdownNow()) ((Task)task).cancel();
+    }
+
+    private class Task implements Runnable {
+
+        private final BProgram program;
+        private final BContext context;
+        private final CompletableFuture<BContext> future = new CompletableFuture<>();
+        private BVirtualMachine machine;
+        private BProgram.Run run;
+
+        Task(BProgram program, BContext context) {
+            this.program = program;
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            if (this.future.isDone()) return;
+
+            boolean failed = false;
+            Throwable thrown = null;
+            try {
+                if (this.machine == null) {
+                    BChunk chunk = this.context.getProfiler() == null ? this.program.getChunk() : null;
+                    if (chunk == null) {
+                        this.program.run(BScript.Backend.INTERPRETER, this.context);
+                        this.future.complete(this.context);
+                        return;
+                    }
+                    this.machine = new BVirtualMachine(this.context, chunk);
+                    this.run = this.program.start(this.context);
+                }
+
+                this.run.resume();
+                if (!this.slice()) {
+                    this.run.pause();
+                    this.requeue();
+                    return;
+                }
+            } catch (BRuntimeException exception) {
+                failed = true;
+                this.context.error(this.program.getFile(), exception.getToken(), exception.getMessage());
+            } catch (Throwable throwable) {
+                failed = true;
+                thrown = throwable;
+            }
+
+            try {
+                if (this.run != null) this.run.finish(BScript.Backend.VIRTUAL_MACHINE, 0, failed);
+            } catch (Throwable throwable) {
+                if (thrown == null) thrown = throwable;
+            }
+
+            if (thrown != null) this.future.completeExceptionally(thrown);
+            else this.future.complete(this.context);
+        }
+
+        /**
+         * Run the machine for one slice of the fuel of the run
+         *
+         * @return true if the program halted, false if it was paused
+         * @throws BOutOfFuelException if the fuel of the run is used up
+         */
+        private boolean slice() {
+            long budget = this.context.getFuel();
+            long slice = Math.min(BScheduler.this.slice, budget);
+            this.context.setFuel(slice);
+            boolean halted = this.machine.interpret();
+            if (budget != Long.MAX_VALUE) budget -= slice - this.context.getFuel();
+            this.context.setFuel(budget);
+
+            if (!halted && budget <= 0) throw new BOutOfFuelException();
+            return halted;
+        }
+
+        private void requeue() {
+            if (BScheduler.this.closed) {
+                this.cancel();
+                return;
+            }
+
+            try {
+                BScheduler.this.executor.execute(this);
+            } catch (RejectedExecutionException exception) {
+                this.cancel();
+            }
+        }
+
+        /**
+         * Cancel the run, it is finished if it already started
+         */
+        private void cancel() {
+            try {
+                if (this.run != null) this.run.finish(BScript.Backend.VIRTUAL_MACHINE, 0, true);
+            } finally {
+                this.future.cancel(false);
+            }
+        }
+
+    }
+
+}
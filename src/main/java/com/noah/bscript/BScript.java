@@ -1,61 +1,214 @@
 package com.noah.bscript;
 
+import com.noah.bscript.lang.BStatement;
 import com.noah.bscript.lang.BToken;
+import com.noah.bscript.metrics.BEngineMetrics;
+import com.noah.bscript.output.BBufferedSink;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.profiler.BProfiler;
 import com.noah.bscript.runtime.BEnvironment;
-import com.noah.bscript.runtime.BInterpreter;
 import com.noah.bscript.runtime.BLexer;
+import com.noah.bscript.runtime.BOperations;
+import com.noah.bscript.runtime.BOptimizer;
 import com.noah.bscript.runtime.BParser;
+import com.noah.bscript.runtime.BResolver;
+import com.noah.bscript.utils.ByteBufferReader;
 import lombok.Getter;
+import lombok.Setter;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 public class BScript {
 
-    private File file;
-    @Getter private boolean failed;
+    /**
+     * The execution backends a script can be run with
+     */
+    public enum Backend {
+        INTERPRETER,
+        VIRTUAL_MACHINE,
+        JVM
+    }
+
+    @Getter private File file;
+    @Getter private volatile boolean failed;
+    @Getter @Setter private Backend backend = Backend.INTERPRETER;
+
+    /**
+     * Creates the sink print statements write to for every run, or null to
+     * print to standard output in batches. A factory that hands the same sink
+     * to every run needs one that can be used by many threads at once, such
+     * as a {@link com.noah.bscript.output.BAsyncSink}.
+     */
+    @Getter @Setter private Supplier<BOutputSink> output;
+
+    /**
+     * The profiler runs report to, or null to not profile them
+     */
+    @Getter @Setter private BProfiler profiler;
+
+    /**
+     * The metrics runs are counted in, set by the engine that loaded the script
+     */
+    @Getter @Setter private BEngineMetrics metrics;
+
+    // how long the last load took to lex and to parse, in nanoseconds
+    private long lexTime = -1;
+    private long parseTime = -1;
 
-    private BInterpreter interpreter;
+    @Getter private volatile BProgram program;
+    // shared by every run, see run
+    private final BEnvironment globals = new BEnvironment();
+
+    @Getter private final List<BDiagnostic> diagnostics = new ArrayList<>();
+    private boolean reporting = true;
 
     public BScript(File file) {
         this.file = file;
     }
 
     /**
-     * Load the tokens of the tree
+     * Create a script from statements that were already parsed and resolved
+     *
+     * @param file the {@link File} the statements were parsed from
+     * @param statements the statements
      */
-    public void load() {
+    BScript(File file, List<BStatement> statements) {
+        this(new BProgram(file, statements));
+    }
+
+    /**
+     * Create a script that runs a program which was already loaded
+     *
+     * @param program the {@link BProgram}
+     */
+    BScript(BProgram program) {
+        this.file = program.getFile();
+        this.program = program;
+    }
 
-        String source;
-        try {
-            byte[] bytes = Files.readAllBytes(Paths.get(file.getPath()));
-            source = new String(bytes, Charset.defaultCharset());
+    /**
+     * Load the tokens of the tree. The file is memory mapped and decoded as
+     * UTF-8 while it is lexed.
+     */
+    public void load() {
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            this.load(new ByteBufferReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    /**
+     * Load the tokens of the tree from a reader, lexing and parsing as the
+     * source is read
+     *
+     * @param reader the source of the script
+     */
+    void load(Reader reader) {
+        BLexer lexer = new BLexer(this, reader);
+        BParser parser = new BParser(this, lexer);
+
+        long started = System.nanoTime();
+        List<BStatement> statements = parser.parse();
+        this.lexTime = lexer.getTime();
+        this.parseTime = Math.max(System.nanoTime() - started - this.lexTime, 0);
+
+        BOptimizer optimizer = new BOptimizer();
+        if (!this.failed) {
+            statements = optimizer.optimize(statements);
+            new BResolver().resolve(statements);
+        }
 
-        BLexer lexer = new BLexer(this, source);
-        BParser parser = new BParser(this, lexer.tokenize());
-        this.interpreter = new BInterpreter(this, parser.parse());
+        this.program = new BProgram(this.file, statements, optimizer.getEliminated());
     }
 
+    /**
+     * Run the program of the script. Globals defined in earlier runs, or from
+     * Java, are kept between runs.
+     * <p>
+     * Every run reads and writes the same globals, which are not synchronized,
+     * so a script must not be run by more than one thread at a time. Threads
+     * that run a script at once should each give the program their own
+     * globals instead, with {@code getProgram().run(new BContext(output))}.
+     */
     public void run() {
         if (this.failed) return;
-        this.interpreter.interpret();
+
+        BContext context = new BContext(this.globals, this.newOutput());
+        context.setProfiler(this.profiler);
+        context.setMetrics(this.metrics);
+        this.program.run(this.backend, context);
+        if (context.isFailed()) this.failed = true;
+    }
+
+    /**
+     * Replace the program of the script. Runs that already started finish
+     * with the program they started with.
+     *
+     * @param program the new {@link BProgram}
+     */
+    void swap(BProgram program) {
+        this.program = program;
+        this.failed = false;
+    }
+
+    /**
+     * @return the output sink of a new run of the script
+     */
+    BOutputSink newOutput() {
+        return this.output != null ? this.output.get() : new BBufferedSink(System.out);
+    }
+
+    List<BStatement> getStatements() {
+        return this.program.getStatements();
+    }
+
+    /**
+     * @return the nanoseconds the last load spent lexing, estimated when the tokens were streamed, or -1 if it did not lex
+     */
+    long getLexTime() {
+        return this.lexTime;
+    }
+
+    /**
+     * @return the nanoseconds the last load spent parsing, or -1 if it did not parse
+     */
+    long getParseTime() {
+        return this.parseTime;
     }
 
     public void define(String name, Object value) {
-        BEnvironment environment = this.interpreter.getEnvironment();
-        environment.define(name, value);
+        this.globals.define(name, value);
+    }
+
+    /**
+     * @param name the name of a global variable
+     * @return the value of the variable after the last run, or null if it is not defined
+     */
+    public Object get(String name) {
+        return BOperations.toJava(this.globals.get(name));
+    }
+
+    /**
+     * @param reporting if errors are printed as they are found, they are always kept as diagnostics
+     */
+    void setReporting(boolean reporting) {
+        this.reporting = reporting;
     }
 
     public void error(int line, String location, String message) {
         this.failed = true;
-        System.out.printf("In %s:%d - '%s' %s", file.getPath(), line, message, location);
-        System.out.println();
+
+        BDiagnostic diagnostic = new BDiagnostic(this.file, line, location, message);
+        this.diagnostics.add(diagnostic);
+        if (this.reporting) System.out.println(diagnostic);
     }
 
     public void error(int line, String message) {
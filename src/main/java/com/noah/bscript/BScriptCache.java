@@ -0,0 +1,131 @@
+package com.noah.bscript;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of parsed scripts, keyed by path. Entries remember the
+ * modification time and size of the file they were parsed from and are
+ * dropped as soon as the file changes. When the total weight (the size of
+ * the cached sources) goes over the limit, the least recently used scripts
+ * are evicted first.
+ */
+public class BScriptCache {
+
+    private final long maximumWeight;
+    private final LinkedHashMap<String, Entry> entries;
+    @Getter private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BScriptCache(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the loaded program of a script if the file did not change
+     *
+     * @param file the {@link File} of the script
+     * @return the {@link BProgram}, or null if it has to be parsed again
+     */
+    public BProgram get(File file) {
+        String key = key(file);
+        long modified = file.lastModified();
+        long size = file.length();
+
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry != null && entry.modified == modified && entry.size == size) {
+                this.hits.increment();
+                return entry.program;
+            }
+
+            if (entry != null) this.remove(key);
+        }
+
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache the loaded program of a script
+     *
+     * @param file the {@link File} of the script
+     * @param modified the modification time of the file before it was read
+     * @param size the size of the file before it was read
+     * @param program the loaded {@link BProgram}
+     */
+    public synchronized void put(File file, long modified, long size, BProgram program) {
+        // never let a single script flush everything else
+        if (size > this.maximumWeight) return;
+
+        String key = key(file);
+        this.remove(key);
+        this.entries.put(key, new Entry(program, modified, size));
+        this.weight += size;
+
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (this.weight > this.maximumWeight && iterator.hasNext()) {
+            this.weight -= iterator.next().size;
+            iterator.remove();
+            this.evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(File file) {
+        this.remove(key(file));
+    }
+
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    private void remove(String key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) this.weight -= entry.size;
+    }
+
+    private static String key(File file) {
+        return file.getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    private static class Entry {
+
+        private final BProgram program;
+        private final long modified;
+        private final long size;
+
+        Entry(BProgram program, long modified, long size) {
+            this.program = program;
+            this.modified = modified;
+            this.size = size;
+        }
+
+    }
+
+}
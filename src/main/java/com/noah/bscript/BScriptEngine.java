@@ -1,30 +1,410 @@
 package com.noah.bscript;
 
+import com.noah.bscript.binary.BBinaryReader;
+import com.noah.bscript.binary.BBinaryWriter;
+import com.noah.bscript.events.BEngineEvent;
+import com.noah.bscript.events.BLoadEvent;
 import com.noah.bscript.exceptions.BScriptException;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.metrics.BEngineMetrics;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.runtime.BResolver;
+import com.noah.bscript.utils.ByteBufferReader;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import jdk.jfr.FlightRecorder;
 
 public class BScriptEngine {
 
     public static final String FILE_EXTENSION = ".bscript";
+    public static final String COMPILED_EXTENSION = ".bsc";
+    public static final long DEFAULT_CACHE_WEIGHT = 16 * 1024 * 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16 * 1024;
+
+    // engines are held weakly so that recording their state does not keep them alive
+    private static final Set<BScriptEngine> ENGINES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final AtomicLong IDS = new AtomicLong();
+
+    static {
+        FlightRecorder.addPeriodicEvent(BEngineEvent.class, BScriptEngine::recordEngines);
+    }
+
+    private final long id = IDS.incrementAndGet();
+    @Getter private final BScriptCache cache;
+
+    private BScriptExecutor executor;
 
     /**
-     * Load a bScript from a file path
+     * Creates the output sink of every run of the scripts this engine loads,
+     * or null to print to standard output
+     *
+     * @see BScript#getOutput()
+     */
+    @Getter @Setter private Supplier<BOutputSink> output;
+
+    /**
+     * The metrics of the engine, or null if they are not enabled
+     */
+    @Getter private volatile BEngineMetrics metrics;
+
+    public BScriptEngine() {
+        this(DEFAULT_CACHE_WEIGHT);
+    }
+
+    /**
+     * @param cacheWeight the total size in bytes of the script sources that are kept parsed
+     */
+    public BScriptEngine(long cacheWeight) {
+        this.cache = new BScriptCache(cacheWeight);
+        ENGINES.add(this);
+    }
+
+    /**
+     * Load a bScript from a file path. A precompiled .bsc file next to the
+     * script is used instead of parsing, as long as it is still up to date.
      *
      * @param file the File path
      */
     public BScript load(File file) {
+        BScript script = this.load(file, true);
+        if (script.isFailed()) {
+            System.out.println("Script could not load. Parsing failed with errors.");
+            return null;
+        }
+        return script;
+    }
+
+    /**
+     * Load every bScript in a directory and its subdirectories in parallel on
+     * the common {@link ForkJoinPool}
+     *
+     * @param directory the directory
+     * @return the scripts that loaded and the errors of the ones that did not
+     */
+    public BLoadResult loadAll(Path directory) {
+        return this.loadAll(directory, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Load every bScript in a directory and its subdirectories in parallel.
+     * Errors are not printed, they are collected per file in the result.
+     *
+     * @param directory the directory
+     * @param pool the {@link ForkJoinPool} the scripts are lexed and parsed on
+     * @return the scripts that loaded and the errors of the ones that did not
+     */
+    public BLoadResult loadAll(Path directory, ForkJoinPool pool) {
+        List<File> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.map(Path::toFile).filter(this::isValid).sorted().collect(Collectors.toList());
+        } catch (IOException exception) {
+            throw new BScriptException("Could not list " + directory + ": " + exception.getMessage());
+        }
+
+        BScript[] scripts = new BScript[files.size()];
+        List<List<BDiagnostic>> failures = new ArrayList<>(Collections.nCopies(files.size(), null));
+        pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, files.size()).parallel().forEach(i -> {
+            File file = files.get(i);
+            try {
+                BScript script = this.load(file, false);
+                if (script.isFailed()) failures.set(i, script.getDiagnostics());
+                else scripts[i] = script;
+            } catch (RuntimeException exception) {
+                failures.set(i, Collections.singletonList(new BDiagnostic(file, 0, "", String.valueOf(exception.getMessage()))));
+            }
+        })));
+
+        Map<File, BScript> loaded = new LinkedHashMap<>();
+        Map<File, List<BDiagnostic>> failed = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (scripts[i] != null) loaded.put(files.get(i), scripts[i]);
+            else failed.put(files.get(i), failures.get(i));
+        }
+        return new BLoadResult(loaded, failed);
+    }
+
+    BScript load(File file, boolean reporting) {
+        BLoadEvent event = new BLoadEvent();
+        event.begin();
+
+        BScript script = this.open(file, reporting, event);
+        script.setOutput(this.output);
+
+        BEngineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.loaded(script.isFailed(), script.getLexTime(), script.getParseTime());
+            script.setMetrics(metrics);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.setPath(file.getPath());
+            event.setStatements(script.getProgram().getStatements().size());
+            event.setEliminated(script.getProgram().getEliminated());
+            event.setFailed(script.isFailed());
+            event.commit();
+        }
+        return script;
+    }
+
+    private BScript open(File file, boolean reporting, BLoadEvent event) {
         if (!isValid(file)) throw new BScriptException("Invalid BScript file: " + file);
 
+        BProgram program = this.cache.get(file);
+        if (program != null) {
+            event.setCached(true);
+            return new BScript(program);
+        }
+
+        long modified = file.lastModified();
+        long size = file.length();
+
         BScript script = new BScript(file);
-        script.load();
+        script.setReporting(reporting);
+        if (compiledFile(file).isFile()) {
+            byte[] source = this.read(file);
+            List<BStatement> statements = this.loadCompiled(file, source, reporting);
+            if (statements != null) {
+                event.setPrecompiled(true);
+                program = new BProgram(file, statements);
+                this.cache.put(file, modified, size, program);
+                return new BScript(program);
+            }
+
+            script.load(new ByteBufferReader(ByteBuffer.wrap(source)));
+        } else {
+            script.load();
+        }
+
+        if (!script.isFailed()) this.cache.put(file, modified, size, script.getProgram());
+        return script;
+    }
+
+    /**
+     * Load every bScript in a directory and its subdirectories, and keep
+     * them up to date with their files
+     *
+     * @param directory the directory
+     * @return the {@link BScriptWatcher}, which has to be closed to stop watching
+     */
+    public BScriptWatcher watch(Path directory) {
+        return this.watch(directory, BScriptWatcher.DEFAULT_DEBOUNCE, null);
+    }
+
+    /**
+     * @param directory the directory
+     * @param debounce how long a file has to stay unchanged before it is reloaded
+     * @param listener the {@link BScriptWatcher.Listener} reloads are reported to, or null
+     * @return the {@link BScriptWatcher}, which has to be closed to stop watching
+     * @see #watch(Path)
+     */
+    public BScriptWatcher watch(Path directory, Duration debounce, BScriptWatcher.Listener listener) {
+        BScriptWatcher watcher = new BScriptWatcher(this, debounce, listener);
+        try {
+            watcher.register(directory);
+        } catch (RuntimeException exception) {
+            watcher.close();
+            throw exception;
+        }
+        return watcher;
+    }
+
+    /**
+     * Run a script asynchronously on the executor of the engine
+     *
+     * @param script the {@link BScript} to run
+     * @param bindings the globals the run starts with
+     * @return a future of the context of the run
+     * @see BScriptExecutor#submit(BScript, Map)
+     */
+    public CompletableFuture<BContext> submit(BScript script, Map<String, Object> bindings) {
+        return this.getExecutor().submit(script, bindings);
+    }
+
+    /**
+     * @return the executor scripts are submitted to, by default it runs as
+     *         many scripts at once as there are processors and blocks
+     *         submitters when its queue is full
+     */
+    public synchronized BScriptExecutor getExecutor() {
+        if (this.executor == null) {
+            this.executor = new BScriptExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, BScriptExecutor.Saturation.BLOCK);
+        }
+        return this.executor;
+    }
+
+    public synchronized void setExecutor(BScriptExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Start counting loads and runs, and register the metrics with the
+     * platform MBean server. Only scripts loaded from now on are counted.
+     *
+     * @return the {@link BEngineMetrics}
+     */
+    public synchronized BEngineMetrics enableMetrics() {
+        if (this.metrics != null) return this.metrics;
+
+        BEngineMetrics metrics = new BEngineMetrics(this.cache);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, this.objectName());
+        } catch (JMException exception) {
+            throw new BScriptException("Could not register engine metrics: " + exception.getMessage());
+        }
+        this.metrics = metrics;
+        return metrics;
+    }
+
+    /**
+     * Stop counting and unregister the metrics, scripts that were already
+     * loaded keep counting their runs into them
+     */
+    public synchronized void disableMetrics() {
+        if (this.metrics == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName());
+        } catch (JMException exception) {
+            throw new BScriptException("Could not unregister engine metrics: " + exception.getMessage());
+        }
+        this.metrics = null;
+    }
+
+    /**
+     * @return the name the metrics of this engine are registered under
+     */
+    public ObjectName objectName() {
+        try {
+            return new ObjectName("com.noah.bscript:type=BScriptEngine,id=" + this.id);
+        } catch (MalformedObjectNameException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static void recordEngines() {
+        BScriptEngine[] engines;
+        synchronized (ENGINES) {
+            engines = ENGINES.toArray(new BScriptEngine[0]);
+        }
+        for (BScriptEngine engine : engines) engine.record();
+    }
+
+    private void record() {
+        BEngineEvent event = new BEngineEvent();
+        event.setEngine(this.id);
+        event.setCachedScripts(this.cache.size());
+        event.setCacheWeight(this.cache.getWeight());
+        event.setCacheHits(this.cache.getHits());
+        event.setCacheMisses(this.cache.getMisses());
+        event.setCacheEvictions(this.cache.getEvictions());
+
+        BScriptExecutor executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor != null) {
+            event.setQueuedRuns(executor.getQueued());
+            event.setRunsInFlight(executor.getInFlight());
+            event.setCompletedRuns(executor.getCompleted());
+            event.setRejectedRuns(executor.getRejected());
+        }
+        event.commit();
+    }
+
+    /**
+     * Parse a bScript and write it out in the precompiled .bsc format
+     *
+     * @param file the File path
+     * @return the .bsc {@link File} that was written, or null if the script failed to parse
+     */
+    public File compile(File file) {
+        if (!isValid(file)) throw new BScriptException("Invalid BScript file: " + file);
+
+        byte[] source = this.read(file);
+        BScript script = new BScript(file);
+        script.load(new ByteBufferReader(ByteBuffer.wrap(source)));
 
         if (script.isFailed()) {
-            System.out.println("Script could not load. Parsing failed with errors.");
+            System.out.println("Script could not be compiled. Parsing failed with errors.");
             return null;
         }
 
-        return script;
+        File compiled = compiledFile(file);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(compiled))) {
+            new BBinaryWriter().write(out, source, script.getStatements());
+        } catch (IOException exception) {
+            throw new BScriptException("Could not write compiled script " + compiled + ": " + exception.getMessage());
+        }
+        return compiled;
+    }
+
+    /**
+     * Read a precompiled script if there is one
+     *
+     * @param file the File path of the source
+     * @param source the current source of the script
+     * @param reporting if a precompiled script that cannot be read is printed before it is ignored
+     * @return the resolved statements, or null if the source has to be parsed
+     */
+    private List<BStatement> loadCompiled(File file, byte[] source, boolean reporting) {
+        File compiled = compiledFile(file);
+        if (!compiled.isFile()) return null;
+
+        try {
+            List<BStatement> statements = new BBinaryReader().read(Files.readAllBytes(compiled.toPath()), source);
+            new BResolver().resolve(statements);
+            return statements;
+        } catch (IOException exception) {
+            if (reporting) {
+                System.out.printf("Ignoring %s: %s", compiled.getPath(), exception.getMessage());
+                System.out.println();
+            }
+            return null;
+        }
+    }
+
+    private byte[] read(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException exception) {
+            throw new BScriptException("Could not read " + file + ": " + exception.getMessage());
+        }
+    }
+
+    /**
+     * @param file the File path of a bScript
+     * @return the File path of its precompiled form
+     */
+    public static File compiledFile(File file) {
+        String name = file.getName();
+        name = name.substring(0, name.length() - FILE_EXTENSION.length()) + COMPILED_EXTENSION;
+        return new File(file.getParentFile(), name);
     }
 
     /**
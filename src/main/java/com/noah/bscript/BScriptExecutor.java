@@ -0,0 +1,199 @@
+package com.noah.bscript;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs scripts asynchronously, each on its own virtual thread where the JVM
+ * has them. At most a fixed amount of scripts run at once, the rest wait in
+ * a bounded queue. When the queue is full, submitting either fails right
+ * away or waits for room, depending on the {@link Saturation} policy.
+ */
+public class BScriptExecutor implements AutoCloseable {
+
+    /**
+     * What happens when a script is submitted while the queue is full
+     */
+    public enum Saturation {
+        REJECT,
+        BLOCK
+    }
+
+    private final ExecutorService threads;
+    private final Semaphore running;
+    private final BlockingQueue<Task> queue;
+    @Getter private final int concurrency;
+    @Getter private final Saturation saturation;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param concurrency the most scripts that run at the same time
+     * @param capacity the most scripts that wait to be run
+     * @param saturation what to do when the queue is full
+     */
+    public BScriptExecutor(int concurrency, int capacity, Saturation saturation) {
+        this.threads = threads();
+        this.running = new Semaphore(concurrency);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.concurrency = concurrency;
+        this.saturation = saturation;
+    }
+
+    /**
+     * Run a script with its own globals and its own output sink, created by
+     * the output factory of the script.
+     *
+     * @param script the {@link BScript} to run, with the backend it is set to
+     * @param bindings the globals the run starts with
+     * @return a future of the context of the run, failing with a
+     *         {@link RejectedExecutionException} if the queue was full
+     */
+    public CompletableFuture<BContext> submit(BScript script, Map<String, Object> bindings) {
+        if (script.isFailed()) return CompletableFuture.failedFuture(new IllegalArgumentException("Script failed to load."));
+
+        BContext context = new BContext(script.newOutput());
+        context.setMetrics(script.getMetrics());
+        bindings.forEach(context::define);
+
+        Task task = new Task(script.getProgram(), script.getBackend(), context);
+        if (this.saturation == Saturation.BLOCK) {
+            try {
+                this.queue.put(task);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(exception);
+            }
+        } else if (!this.queue.offer(task)) {
+            this.rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Script queue is full."));
+        }
+
+        this.dispatch();
+        return task.future;
+    }
+
+    /**
+     * Start queued scripts while there is room for them to run
+     */
+    private void dispatch() {
+        while (!this.queue.isEmpty() && this.running.tryAcquire()) {
+            Task task = this.queue.poll();
+            if (task == null) {
+                this.running.release();
+                continue;
+            }
+
+            this.inFlight.incrementAndGet();
+            try {
+                this.threads.execute(task);
+            } catch (RejectedExecutionException exception) {
+                task.future.completeExceptionally(exception);
+                this.finish();
+            }
+        }
+    }
+
+    private void finish() {
+        this.inFlight.decrementAndGet();
+        this.running.release();
+        this.dispatch();
+    }
+
+    /**
+     * @return the amount of scripts waiting to be run
+     */
+    public int getQueued() {
+        return this.queue.size();
+    }
+
+    /**
+     * @return the amount of scripts that are running
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    public long getCompleted() {
+        return this.completed.sum();
+    }
+
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Stop running scripts, those still in the queue are cancelled
+     */
+    @Override
+    public void close() {
+        this.threads.shutdown();
+
+        Task task;
+        while ((task = this.queue.poll()) != null) task.future.cancel(false);
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per script, or a
+     *         daemon platform thread on JVMs without virtual threads
+     */
+    private static ExecutorService threads() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "bscript-executor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private class Task implements Runnable {
+
+        private final BProgram program;
+        private final BScript.Backend backend;
+        private final BContext context;
+        private final CompletableFuture<BContext> future = new CompletableFuture<>();
+
+        Task(BProgram program, BScript.Backend backend, BContext context) {
+            this.program = program;
+            this.backend = backend;
+            this.context = context;
+        }
+
+        /**
+         * The run is counted as completed before its future is, so whoever
+         * waits on the future sees the counters of the executor include it
+         */
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                this.program.run(this.backend, this.context);
+            } catch (Throwable throwable) {
+                failure = throwable;
+            } finally {
+                BScriptExecutor.this.completed.increment();
+                BScriptExecutor.this.finish();
+            }
+
+            if (failure == null) this.future.complete(this.context);
+            else this.future.completeExceptionally(failure);
+        }
+
+    }
+
+}
@@ -0,0 +1,301 @@
+package com.noah.bscript;
+
+import com.noah.bscript.exceptions.BScriptException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the scripts of directories up to date with their files. Every
+ * script in a watched directory (and its subdirectories) is loaded once,
+ * after that a background thread re-parses the ones that change and swaps
+ * the new program into the same {@link BScript}. Runs that already started
+ * finish with the program they started with, runs that start after the
+ * swap use the new one.
+ * <p>
+ * Editors tend to write a file in several steps, so a script is only
+ * reloaded once its file has been quiet for the debounce delay. A script
+ * that fails to parse is not swapped in, it keeps running the last version
+ * that loaded and the errors are reported to the {@link Listener}. Deleting
+ * a file does not unload its script either.
+ */
+public class BScriptWatcher implements AutoCloseable {
+
+    public static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(100);
+
+    /**
+     * Notified on the watcher thread whenever a changed script was handled
+     */
+    public interface Listener {
+
+        /**
+         * @param script the {@link BScript} that now runs the new version of its file
+         */
+        default void reloaded(BScript script) {}
+
+        /**
+         * @param file the script that failed to load, its last good version is kept
+         * @param diagnostics the errors of the new version
+         */
+        default void rejected(File file, List<BDiagnostic> diagnostics) {}
+
+    }
+
+    private final BScriptEngine engine;
+    private final long debounce;
+    private final Listener listener;
+    private final WatchService service;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Map<File, BScript> scripts = new ConcurrentHashMap<>();
+    private final Map<File, List<BDiagnostic>> errors = new ConcurrentHashMap<>();
+
+    // changed files by the time they may be reloaded, only used by the watcher thread
+    private final Map<Path, Long> pending = new HashMap<>();
+
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param engine the {@link BScriptEngine} scripts are loaded with
+     * @param debounce how long a file has to stay unchanged before it is reloaded
+     * @param listener the {@link Listener} reloads are reported to, or null
+     */
+    public BScriptWatcher(BScriptEngine engine, Duration debounce, Listener listener) {
+        this.engine = engine;
+        this.debounce = debounce.toNanos();
+        this.listener = listener != null ? listener : new Listener() {};
+
+        try {
+            this.service = FileSystems.getDefault().newWatchService();
+        } catch (IOException exception) {
+            throw new BScriptException("Could not watch for changes: " + exception.getMessage());
+        }
+
+        this.thread = new Thread(this::watch, "bscript-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Watch a directory and its subdirectories, loading the scripts in it
+     *
+     * @param directory the directory
+     */
+    public void register(Path directory) {
+        this.register(directory, false);
+    }
+
+    /**
+     * @param notify whether the scripts in the directory are reported as reloads
+     */
+    private void register(Path directory, boolean notify) {
+        directory = directory.toAbsolutePath();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted().collect(Collectors.toList());
+        } catch (IOException exception) {
+            throw new BScriptException("Could not list " + directory + ": " + exception.getMessage());
+        }
+
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try {
+                    WatchKey key = path.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                    this.directories.put(key, path);
+                } catch (IOException exception) {
+                    throw new BScriptException("Could not watch " + path + ": " + exception.getMessage());
+                }
+            } else if (this.engine.isValid(path.toFile())) {
+                this.reload(path, notify);
+            }
+        }
+    }
+
+    /**
+     * @param file the file of a script in a watched directory
+     * @return the {@link BScript} of the file, or null if it never loaded
+     */
+    public BScript getScript(File file) {
+        return this.scripts.get(file.getAbsoluteFile());
+    }
+
+    /**
+     * @return the scripts of the watched directories by their file
+     */
+    public Map<File, BScript> getScripts() {
+        return Collections.unmodifiableMap(this.scripts);
+    }
+
+    /**
+     * @return the errors of the scripts whose latest version failed to load, by their file
+     */
+    public Map<File, List<BDiagnostic>> getErrors() {
+        return Collections.unmodifiableMap(this.errors);
+    }
+
+    /**
+     * @return how many times a changed script was swapped in
+     */
+    public long getReloads() {
+        return this.reloads.sum();
+    }
+
+    /**
+     * @return how many times a changed script failed to load and was rolled back
+     */
+    public long getRejections() {
+        return this.rejections.sum();
+    }
+
+    /**
+     * Stop watching, the scripts keep the programs they have
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.service.close();
+        } catch (IOException exception) {
+            // nothing left to watch either way
+        }
+
+        this.thread.interrupt();
+        if (Thread.currentThread() == this.thread) return;
+        try {
+            this.thread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (!this.closed) {
+                WatchKey key;
+                if (this.pending.isEmpty()) key = this.service.take();
+                else {
+                    long wait = Collections.min(this.pending.values()) - System.nanoTime();
+                    key = wait > 0 ? this.service.poll(wait, TimeUnit.NANOSECONDS) : this.service.poll();
+                }
+
+                if (key != null) this.changed(key);
+                this.reloadQuiet();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException exception) {
+            // closed
+        }
+    }
+
+    private void changed(WatchKey key) {
+        Path directory = this.directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) break;
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, check everything in the directory
+                for (File file : this.scripts.keySet()) {
+                    if (file.toPath().getParent().equals(directory)) this.pending.put(file.toPath(), System.nanoTime() + this.debounce);
+                }
+                continue;
+            }
+
+            Path path = directory.resolve((Path)event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    this.register(path, true);
+                } catch (BScriptException exception) {
+                    // it was removed again before it could be watched
+                }
+            } else if (path.getFileName().toString().endsWith(BScriptEngine.FILE_EXTENSION)) {
+                // every event pushes the reload back, so a file is read once it is written completely
+                this.pending.put(path, System.nanoTime() + this.debounce);
+            }
+        }
+
+        if (!key.reset()) this.directories.remove(key);
+    }
+
+    private void reloadQuiet() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Long>> iterator = this.pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (entry.getValue() - now > 0) continue;
+
+            iterator.remove();
+            this.reload(entry.getKey(), true);
+        }
+    }
+
+    /**
+     * Load the current version of a script and swap it in if it loaded
+     *
+     * @param notify whether to count and report the outcome
+     */
+    private void reload(Path path, boolean notify) {
+        File file = path.toFile().getAbsoluteFile();
+        this.engine.getCache().invalidate(file);
+        // a deleted script keeps running its last version
+        if (!this.engine.isValid(file)) return;
+
+        BScript loaded;
+        try {
+            loaded = this.engine.load(file, false);
+        } catch (RuntimeException exception) {
+            this.reject(file, Collections.singletonList(new BDiagnostic(file, 0, "", String.valueOf(exception.getMessage()))), notify);
+            return;
+        }
+        if (loaded.isFailed()) {
+            this.reject(file, loaded.getDiagnostics(), notify);
+            return;
+        }
+
+        this.errors.remove(file);
+        BScript script = this.scripts.putIfAbsent(file, loaded);
+        if (script != null) script.swap(loaded.getProgram());
+        else script = loaded;
+        if (!notify) return;
+
+        this.reloads.increment();
+        try {
+            this.listener.reloaded(script);
+        } catch (RuntimeException exception) {
+            // a failing listener must not stop the watcher
+        }
+    }
+
+    private void reject(File file, List<BDiagnostic> diagnostics, boolean notify) {
+        this.errors.put(file, diagnostics);
+        if (!notify) return;
+
+        this.rejections.increment();
+        try {
+            this.listener.rejected(file, diagnostics);
+        } catch (RuntimeException exception) {
+            // a failing listener must not stop the watcher
+        }
+    }
+
+}
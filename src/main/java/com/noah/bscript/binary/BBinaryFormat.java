@@ -0,0 +1,56 @@
+package com.noah.bscript.binary;
+
+/**
+ * The layout of a precompiled bScript (.bsc) file:
+ *
+ * <pre>
+ * header   magic u4, version u2, source length u8, source crc u4, payload length u4, payload crc u4
+ * payload  string table, number table, statement count, statements
+ * </pre>
+ *
+ * Nodes are written as a tag followed by their children, statements also
+ * have their line right after the tag. Tokens are written as their type, an
+ * index into the string table and their line. Calls are written as their
+ * callee, their closing parenthesis and a counted list of arguments, functions
+ * as their name, a counted list of parameters and their body. All counts, indexes
+ * and lines are unsigned variable length integers, strings are UTF-8.
+ * Token types are stored by ordinal, so {@link #VERSION} has to change
+ * whenever {@link com.noah.bscript.lang.BToken.Type} or a tag does.
+ */
+public final class BBinaryFormat {
+
+    private BBinaryFormat() {}
+
+    public static final int MAGIC = 0x42534300; // "BSC\0"
+    public static final int VERSION = 5;
+
+    // NODES
+    public static final int NONE = 0;
+
+    public static final int IF = 1;
+    public static final int WHILE = 2;
+    public static final int BLOCK = 3;
+    public static final int EXPRESSION = 4;
+    public static final int LET_STATEMENT = 5;
+    public static final int PRINT = 6;
+    public static final int FUNCTION = 7;
+    public static final int RETURN = 8;
+    public static final int FOR = 9;
+
+    public static final int ASSIGN = 16;
+    public static final int BINARY = 17;
+    public static final int GROUPING = 18;
+    public static final int LITERAL = 19;
+    public static final int LOGICAL = 20;
+    public static final int UNARY = 21;
+    public static final int LET_EXPRESSION = 22;
+    public static final int CALL = 23;
+
+    // LITERALS
+    public static final int NULL = 0;
+    public static final int TRUE = 1;
+    public static final int FALSE = 2;
+    public static final int NUMBER = 3;
+    public static final int STRING = 4;
+
+}
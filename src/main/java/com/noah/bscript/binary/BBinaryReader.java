@@ -0,0 +1,169 @@
+package com.noah.bscript.binary;
+
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.noah.bscript.binary.BBinaryFormat.*;
+
+/**
+ * Reads statements written by the {@link BBinaryWriter}. Files from another
+ * version, with a bad checksum or compiled from a different source are
+ * rejected with an {@link IOException}.
+ */
+public class BBinaryReader {
+
+    private static final BToken.Type[] TYPES = BToken.Type.values();
+
+    private ByteBuffer buffer;
+    private String[] strings;
+    private double[] numbers;
+
+    /**
+     * Read the statements of a script
+     *
+     * @param bytes the contents of the .bsc file
+     * @param source the current source of the script
+     * @return the parsed statements
+     * @throws IOException if the file is corrupt or stale
+     */
+    public List<BStatement> read(byte[] bytes, byte[] source) throws IOException {
+        this.buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (this.buffer.getInt() != MAGIC) throw new IOException("Not a compiled bScript.");
+            int version = this.buffer.getShort() & 0xFFFF;
+            if (version != VERSION) throw new IOException("Unsupported version " + version + ", expected " + VERSION + ".");
+
+            long sourceLength = this.buffer.getLong();
+            int sourceCrc = this.buffer.getInt();
+            if (sourceLength != source.length || sourceCrc != BBinaryWriter.crc(source, 0, source.length))
+                throw new IOException("Compiled script is stale.");
+
+            int payloadLength = this.buffer.getInt();
+            int payloadCrc = this.buffer.getInt();
+            if (payloadLength != this.buffer.remaining() || payloadCrc != BBinaryWriter.crc(bytes, this.buffer.position(), payloadLength))
+                throw new IOException("Compiled script is corrupt.");
+
+            this.strings = new String[this.readVarInt()];
+            for (int i = 0; i < this.strings.length; i++) {
+                int length = this.readVarInt();
+                this.strings[i] = new String(bytes, this.buffer.position(), length, StandardCharsets.UTF_8);
+                this.buffer.position(this.buffer.position() + length);
+            }
+
+            this.numbers = new double[this.readVarInt()];
+            for (int i = 0; i < this.numbers.length; i++) this.numbers[i] = this.buffer.getDouble();
+
+            List<BStatement> statements = this.statements();
+            if (this.buffer.hasRemaining()) throw new IOException("Trailing data in compiled script.");
+            return statements;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException exception) {
+            throw new IOException("Compiled script is corrupt.", exception);
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // NODES
+    ///////////////////////////////////////////////////
+
+    private List<BStatement> statements() throws IOException {
+        int count = this.readVarInt();
+        List<BStatement> statements = new ArrayList<>(Math.min(count, this.buffer.remaining()));
+        for (int i = 0; i < count; i++) statements.add(this.statement());
+        return statements;
+    }
+
+    private BStatement function() throws IOException {
+        BToken name = this.token();
+
+        int count = this.readVarInt();
+        List<BToken> parameters = new ArrayList<>(Math.min(count, this.buffer.remaining()));
+        for (int i = 0; i < count; i++) parameters.add(this.token());
+        return new BStatement.Function(name, parameters, this.statements());
+    }
+
+    private BStatement statement() throws IOException {
+        int tag = this.buffer.get();
+        if (tag == NONE) return null;
+
+        int line = this.readVarInt();
+        switch (tag) {
+            case IF: return new BStatement.If(this.expression(), this.statement(), this.statement()).at(line);
+            case WHILE: return new BStatement.While(this.expression(), this.statement()).at(line);
+            case FOR: return new BStatement.For(this.statement(), this.expression(), this.expression(), this.statement()).at(line);
+            case BLOCK: return new BStatement.Block(this.statements()).at(line);
+            case EXPRESSION: return new BStatement.Expression(this.expression()).at(line);
+            case LET_STATEMENT: return new BStatement.Let(this.token(), this.expression()).at(line);
+            case PRINT: return new BStatement.Print(this.expression()).at(line);
+            case FUNCTION: return this.function().at(line);
+            case RETURN: return new BStatement.Return(this.token(), this.expression()).at(line);
+        }
+        throw new IOException("Unknown statement tag " + tag + ".");
+    }
+
+    private BExpression expression() throws IOException {
+        int tag = this.buffer.get();
+        switch (tag) {
+            case NONE: return null;
+            case ASSIGN: return new BExpression.Assign(this.token(), this.expression());
+            case BINARY: return new BExpression.Binary(this.expression(), this.token(), this.expression());
+            case GROUPING: return new BExpression.Grouping(this.expression());
+            case LITERAL: return new BExpression.Literal(this.literal());
+            case LOGICAL: return new BExpression.Logical(this.expression(), this.token(), this.expression());
+            case UNARY: return new BExpression.Unary(this.token(), this.expression());
+            case LET_EXPRESSION: return new BExpression.Let(this.token());
+            case CALL: return this.call();
+        }
+        throw new IOException("Unknown expression tag " + tag + ".");
+    }
+
+    private BExpression call() throws IOException {
+        BExpression callee = this.expression();
+        BToken paren = this.token();
+
+        int count = this.readVarInt();
+        List<BExpression> arguments = new ArrayList<>(Math.min(count, this.buffer.remaining()));
+        for (int i = 0; i < count; i++) arguments.add(this.expression());
+        return new BExpression.Call(callee, paren, arguments);
+    }
+
+    private Object literal() throws IOException {
+        int kind = this.readVarInt();
+        switch (kind) {
+            case NULL: return null;
+            case TRUE: return true;
+            case FALSE: return false;
+            case NUMBER: return this.numbers[this.readVarInt()];
+            case STRING: return this.strings[this.readVarInt()];
+        }
+        throw new IOException("Unknown literal kind " + kind + ".");
+    }
+
+    private BToken token() {
+        BToken.Type type = TYPES[this.readVarInt()];
+        String lexeme = this.strings[this.readVarInt()];
+        int line = this.readVarInt();
+
+        // the lexer keeps the text of identifiers and keywords as their literal
+        boolean word = type == BToken.Type.IDENTIFIER || type.getText() != null;
+        return new BToken(type, lexeme, word ? lexeme : null, line);
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte next = this.buffer.get();
+            value |= (next & 0x7F) << shift;
+            if (next >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed variable length integer.");
+    }
+
+}
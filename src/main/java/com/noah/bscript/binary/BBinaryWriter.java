@@ -0,0 +1,288 @@
+package com.noah.bscript.binary;
+
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.noah.bscript.binary.BBinaryFormat.*;
+
+/**
+ * Writes parsed statements in the {@link BBinaryFormat}
+ */
+public class BBinaryWriter implements BExpression.Visitor<Void>, BStatement.Visitor<Void> {
+
+    private final ByteArrayOutputStream nodes;
+    private final List<String> strings;
+    private final Map<String, Integer> stringIndexes;
+    private final List<Double> numbers;
+    private final Map<Double, Integer> numberIndexes;
+
+    public BBinaryWriter() {
+        this.nodes = new ByteArrayOutputStream();
+        this.strings = new ArrayList<>();
+        this.stringIndexes = new HashMap<>();
+        this.numbers = new ArrayList<>();
+        this.numberIndexes = new HashMap<>();
+    }
+
+    /**
+     * Write the statements of a script
+     *
+     * @param out the stream to write to
+     * @param source the source the statements were parsed from, used to detect stale files
+     * @param statements the parsed statements
+     */
+    public void write(OutputStream out, byte[] source, List<BStatement> statements) throws IOException {
+        writeVarInt(this.nodes, statements.size());
+        for (BStatement statement : statements) this.write(statement);
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeVarInt(payload, this.strings.size());
+        for (String string : this.strings) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(payload, utf8.length);
+            payload.write(utf8);
+        }
+
+        DataOutputStream data = new DataOutputStream(payload);
+        writeVarInt(payload, this.numbers.size());
+        for (double number : this.numbers) data.writeDouble(number);
+        this.nodes.writeTo(payload);
+
+        byte[] bytes = payload.toByteArray();
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION);
+        header.writeLong(source.length);
+        header.writeInt(crc(source, 0, source.length));
+        header.writeInt(bytes.length);
+        header.writeInt(crc(bytes, 0, bytes.length));
+        header.write(bytes);
+        header.flush();
+    }
+
+    ///////////////////////////////////////////////////
+    // STATEMENTS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitIf(BStatement.If statement) {
+        this.tag(IF, statement);
+        this.write(statement.getExpression());
+        this.write(statement.getThenBranch());
+        this.write(statement.getElseBranch());
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(BStatement.While statement) {
+        this.tag(WHILE, statement);
+        this.write(statement.getCondition());
+        this.write(statement.getBody());
+        return null;
+    }
+
+    @Override
+    public Void visitFor(BStatement.For statement) {
+        this.tag(FOR, statement);
+        this.write(statement.getInitializer());
+        this.write(statement.getCondition());
+        this.write(statement.getIncrement());
+        this.write(statement.getBody());
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(BStatement.Block statement) {
+        this.tag(BLOCK, statement);
+        writeVarInt(this.nodes, statement.getStatements().size());
+        for (BStatement inner : statement.getStatements()) this.write(inner);
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(BStatement.Expression statement) {
+        this.tag(EXPRESSION, statement);
+        this.write(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(BStatement.Let statement) {
+        this.tag(LET_STATEMENT, statement);
+        this.token(statement.getName());
+        this.write(statement.getInitializer());
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(BStatement.Print statement) {
+        this.tag(PRINT, statement);
+        this.write(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(BStatement.Function statement) {
+        this.tag(FUNCTION, statement);
+        this.token(statement.getName());
+        writeVarInt(this.nodes, statement.getParameters().size());
+        for (BToken parameter : statement.getParameters()) this.token(parameter);
+        writeVarInt(this.nodes, statement.getBody().size());
+        for (BStatement inner : statement.getBody()) this.write(inner);
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(BStatement.Return statement) {
+        this.tag(RETURN, statement);
+        this.token(statement.getKeyword());
+        this.write(statement.getValue());
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // EXPRESSIONS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitAssign(BExpression.Assign expression) {
+        this.tag(ASSIGN);
+        this.token(expression.getName());
+        this.write(expression.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(BExpression.Binary expression) {
+        this.tag(BINARY);
+        this.write(expression.getLeft());
+        this.token(expression.getOperator());
+        this.write(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(BExpression.Grouping expression) {
+        this.tag(GROUPING);
+        this.write(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(BExpression.Literal expression) {
+        this.tag(LITERAL);
+
+        Object value = expression.getValue();
+        if (value == null) writeVarInt(this.nodes, NULL);
+        else if (Boolean.TRUE.equals(value)) writeVarInt(this.nodes, TRUE);
+        else if (Boolean.FALSE.equals(value)) writeVarInt(this.nodes, FALSE);
+        else if (value instanceof Double) {
+            writeVarInt(this.nodes, NUMBER);
+            writeVarInt(this.nodes, this.numberIndexes.computeIfAbsent((Double)value, number -> {
+                this.numbers.add(number);
+                return this.numbers.size() - 1;
+            }));
+        } else {
+            writeVarInt(this.nodes, STRING);
+            writeVarInt(this.nodes, this.string(value.toString()));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(BExpression.Logical expression) {
+        this.tag(LOGICAL);
+        this.write(expression.getLeft());
+        this.token(expression.getOperator());
+        this.write(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(BExpression.Unary expression) {
+        this.tag(UNARY);
+        this.token(expression.getOperator());
+        this.write(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLetExpression(BExpression.Let expression) {
+        this.tag(LET_EXPRESSION);
+        this.token(expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitCall(BExpression.Call expression) {
+        this.tag(CALL);
+        this.write(expression.getCallee());
+        this.token(expression.getParen());
+        writeVarInt(this.nodes, expression.getArguments().size());
+        for (BExpression argument : expression.getArguments()) this.write(argument);
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // UTILITY
+    ///////////////////////////////////////////////////
+
+    private void write(BStatement statement) {
+        if (statement == null) this.tag(NONE);
+        else statement.accept(this);
+    }
+
+    private void write(BExpression expression) {
+        if (expression == null) this.tag(NONE);
+        else expression.accept(this);
+    }
+
+    private void tag(int tag, BStatement statement) {
+        this.tag(tag);
+        writeVarInt(this.nodes, statement.getLine());
+    }
+
+    private void tag(int tag) {
+        this.nodes.write(tag);
+    }
+
+    private void token(BToken token) {
+        writeVarInt(this.nodes, token.getType().ordinal());
+        writeVarInt(this.nodes, this.string(token.getLexeme()));
+        writeVarInt(this.nodes, token.getPosition());
+    }
+
+    private int string(String value) {
+        return this.stringIndexes.computeIfAbsent(value, string -> {
+            this.strings.add(string);
+            return this.strings.size() - 1;
+        });
+    }
+
+    static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int)crc.getValue();
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.noah.bscript.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Emitted periodically for every live {@link com.noah.bscript.BScriptEngine}
+ */
+@Name("com.noah.bscript.Engine")
+@Label("Script Engine")
+@Category("bScript")
+@Description("The state of the cache and the executor of an engine")
+@Period("10 s")
+@StackTrace(false)
+@Setter
+public class BEngineEvent extends Event {
+
+    @Label("Engine")
+    @Description("Tells engines within the same JVM apart")
+    private long engine;
+
+    @Label("Cached Scripts")
+    private int cachedScripts;
+
+    @Label("Cache Weight")
+    @DataAmount
+    private long cacheWeight;
+
+    @Label("Cache Hits")
+    private long cacheHits;
+
+    @Label("Cache Misses")
+    private long cacheMisses;
+
+    @Label("Cache Evictions")
+    private long cacheEvictions;
+
+    @Label("Queued Runs")
+    private int queuedRuns;
+
+    @Label("Runs In Flight")
+    private int runsInFlight;
+
+    @Label("Completed Runs")
+    private long completedRuns;
+
+    @Label("Rejected Runs")
+    private long rejectedRuns;
+
+}
@@ -0,0 +1,31 @@
+package com.noah.bscript.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Emitted when a {@link com.noah.bscript.runtime.BLexer} tokenizes a whole source up front
+ */
+@Name("com.noah.bscript.Lex")
+@Label("Script Lex")
+@Category("bScript")
+@Description("A script was tokenized")
+@StackTrace(false)
+@Setter
+public class BLexEvent extends Event {
+
+    @Label("Path")
+    private String path;
+
+    @Label("Tokens")
+    private int tokens;
+
+    @Label("Failed")
+    private boolean failed;
+
+}
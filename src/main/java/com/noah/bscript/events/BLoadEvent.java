@@ -0,0 +1,43 @@
+package com.noah.bscript.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Emitted by {@link com.noah.bscript.BScriptEngine} for every script it loads, including cache hits
+ */
+@Name("com.noah.bscript.Load")
+@Label("Script Load")
+@Category("bScript")
+@Description("A script was loaded by an engine")
+@StackTrace(false)
+@Setter
+public class BLoadEvent extends Event {
+
+    @Label("Path")
+    private String path;
+
+    @Label("Statements")
+    private int statements;
+
+    @Label("Eliminated")
+    @Description("The amount of nodes the optimizer removed from the program")
+    private int eliminated;
+
+    @Label("Cached")
+    @Description("The program came from the cache of the engine")
+    private boolean cached;
+
+    @Label("Precompiled")
+    @Description("The program was read from a .bsc file")
+    private boolean precompiled;
+
+    @Label("Failed")
+    private boolean failed;
+
+}
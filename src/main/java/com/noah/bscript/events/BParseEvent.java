@@ -0,0 +1,36 @@
+package com.noah.bscript.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Emitted when a {@link com.noah.bscript.runtime.BParser} parses a script.
+ * Streaming parsers lex while they parse, so their events include the time
+ * spent lexing.
+ */
+@Name("com.noah.bscript.Parse")
+@Label("Script Parse")
+@Category("bScript")
+@Description("A script was parsed, including lexing when the tokens were streamed")
+@StackTrace(false)
+@Setter
+public class BParseEvent extends Event {
+
+    @Label("Path")
+    private String path;
+
+    @Label("Tokens")
+    private int tokens;
+
+    @Label("Statements")
+    private int statements;
+
+    @Label("Failed")
+    private boolean failed;
+
+}
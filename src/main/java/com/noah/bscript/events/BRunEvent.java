@@ -0,0 +1,34 @@
+package com.noah.bscript.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Setter;
+
+/**
+ * Emitted for every run of a {@link com.noah.bscript.BProgram}
+ */
+@Name("com.noah.bscript.Run")
+@Label("Script Run")
+@Category("bScript")
+@Description("A script was run")
+@StackTrace(false)
+@Setter
+public class BRunEvent extends Event {
+
+    @Label("Path")
+    private String path;
+
+    @Label("Backend")
+    private String backend;
+
+    @Label("Statements")
+    private int statements;
+
+    @Label("Failed")
+    private boolean failed;
+
+}
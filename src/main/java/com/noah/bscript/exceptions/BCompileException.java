@@ -0,0 +1,9 @@
+package com.noah.bscript.exceptions;
+
+public class BCompileException extends RuntimeException {
+
+    public BCompileException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,12 @@
+package com.noah.bscript.exceptions;
+
+/**
+ * Thrown when a run uses up the fuel of its {@link com.noah.bscript.BContext}
+ */
+public class BOutOfFuelException extends BRuntimeException {
+
+    public BOutOfFuelException() {
+        super(null, "Execution budget exhausted.");
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.noah.bscript.host;
+
+import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.lang.BToken;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * The call site of one call expression, linked the way invokedynamic call
+ * sites are. The target starts out as a fallback that links the callee for
+ * the types of the arguments it sees and puts the result in front of the
+ * target, guarded by a test for the same callee and argument types. Up to
+ * {@link #MAX_POLYMORPHISM} of them are chained, after that the site stops
+ * growing and links every call through the cache of the callee instead.
+ * <p>
+ * Sites belong to the expression, so they are shared by every run of a
+ * program. Its target has the type (Object callee, Object[] arguments)Object.
+ */
+public final class BCallSite extends MutableCallSite {
+
+    public static final int MAX_POLYMORPHISM = 4;
+
+    public static final MethodType TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle MEGAMORPHIC;
+    private static final MethodHandle MATCHES;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FALLBACK = lookup.findVirtual(BCallSite.class, "fallback", TYPE);
+            MEGAMORPHIC = lookup.findVirtual(BCallSite.class, "megamorphic", TYPE);
+            MATCHES = lookup.findStatic(BCallSite.class, "matches", MethodType.methodType(boolean.class, BHostFunction.class, Class[].class, Object.class, Object[].class));
+        } catch (ReflectiveOperationException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
+
+    @Getter private final BToken paren;
+    @Getter private final int arity;
+
+    // the amount of targets chained in front of the fallback, guarded by this
+    @Getter private int links;
+
+    /**
+     * @param paren the closing parenthesis of the call, errors are reported at it
+     * @param arity the amount of arguments the call passes
+     */
+    public BCallSite(BToken paren, int arity) {
+        super(TYPE);
+        this.paren = paren;
+        this.arity = arity;
+        this.setTarget(FALLBACK.bindTo(this));
+    }
+
+    /**
+     * Call the callee through the target of the site
+     *
+     * @param callee the value that is called
+     * @param arguments the evaluated arguments
+     * @return the result of the call
+     */
+    public Object call(Object callee, Object[] arguments) {
+        try {
+            return this.getTarget().invokeExact(callee, arguments);
+        } catch (RuntimeException | Error exception) {
+            throw this.failure(exception);
+        } catch (Throwable throwable) {
+            throw new BRuntimeException(this.paren, "Native function failed: " + throwable);
+        }
+    }
+
+    /**
+     * Turn what a call threw into the error it is reported as, runtime
+     * errors of the script are kept as they are
+     *
+     * @param throwable what was thrown
+     * @return the {@link RuntimeException} or {@link Error} to throw
+     */
+    public RuntimeException failure(Throwable throwable) {
+        if (throwable instanceof BRuntimeException) return (BRuntimeException)throwable;
+        if (throwable instanceof Error && !(throwable instanceof StackOverflowError)) throw (Error)throwable;
+        return new BRuntimeException(this.paren, "Native function failed: " + throwable);
+    }
+
+    private Object fallback(Object callee, Object[] arguments) throws Throwable {
+        BHostFunction function = this.function(callee);
+        Class<?>[] types = types(arguments);
+        MethodHandle target = this.link(function, types);
+
+        synchronized (this) {
+            if (this.links < MAX_POLYMORPHISM) {
+                MethodHandle test = MethodHandles.insertArguments(MATCHES, 0, function, types);
+                this.setTarget(MethodHandles.guardWithTest(test, MethodHandles.dropArguments(target, 0, Object.class), this.getTarget()));
+                this.links++;
+            } else {
+                this.setTarget(MEGAMORPHIC.bindTo(this));
+            }
+        }
+        return target.invokeExact(arguments);
+    }
+
+    private Object megamorphic(Object callee, Object[] arguments) throws Throwable {
+        return this.link(this.function(callee), types(arguments)).invokeExact(arguments);
+    }
+
+    private BHostFunction function(Object callee) {
+        if (!(callee instanceof BHostFunction)) throw new BRuntimeException(this.paren, "Can only call functions.");
+        return (BHostFunction)callee;
+    }
+
+    private MethodHandle link(BHostFunction function, Class<?>[] types) {
+        try {
+            return function.link(types);
+        } catch (IllegalArgumentException exception) {
+            throw new BRuntimeException(this.paren, exception.getMessage());
+        }
+    }
+
+    private static Class<?>[] types(Object[] arguments) {
+        Class<?>[] types = new Class<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) types[i] = arguments[i] == null ? null : arguments[i].getClass();
+        return types;
+    }
+
+    private static boolean matches(BHostFunction function, Class<?>[] types, Object callee, Object[] arguments) {
+        if (callee != function) return false;
+        for (int i = 0; i < types.length; i++) {
+            Object argument = arguments[i];
+            if (argument == null ? types[i] != null : argument.getClass() != types[i]) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.noah.bscript.host;
+
+import com.noah.bscript.exceptions.BScriptException;
+import com.noah.bscript.runtime.BOperations;
+import com.noah.bscript.runtime.BString;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Java method, or a set of overloads, that scripts can call. Host functions
+ * are plain values, so they are made available to a script by defining them
+ * as a global:
+ *
+ * <pre>
+ * script.define("sqrt", BHostFunction.of(Math.class, "sqrt"));
+ * </pre>
+ *
+ * Script numbers are passed to numeric parameters (integral parameters get
+ * them truncated), strings to {@link String} and {@link CharSequence}
+ * parameters and booleans to boolean parameters. Everything else is passed
+ * as is. Numbers returned by the method become script numbers.
+ */
+public final class BHostFunction {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle TO_DOUBLE;
+    private static final MethodHandle TO_STRING;
+    private static final MethodHandle TO_BOOLEAN;
+    private static final MethodHandle TO_JAVA;
+    private static final MethodHandle FROM_DOUBLE;
+    private static final MethodHandle FROM_JAVA;
+
+    static {
+        try {
+            TO_DOUBLE = LOOKUP.findStatic(BHostFunction.class, "toDouble", MethodType.methodType(double.class, Object.class));
+            TO_STRING = LOOKUP.findStatic(BHostFunction.class, "toString", MethodType.methodType(String.class, Object.class));
+            TO_BOOLEAN = LOOKUP.findStatic(BHostFunction.class, "toBoolean", MethodType.methodType(boolean.class, Object.class));
+            TO_JAVA = LOOKUP.findStatic(BOperations.class, "toJava", MethodType.methodType(Object.class, Object.class));
+            FROM_DOUBLE = LOOKUP.findStatic(BOperations.class, "valueOf", MethodType.methodType(Double.class, double.class));
+            FROM_JAVA = LOOKUP.findStatic(BHostFunction.class, "fromJava", MethodType.methodType(Object.class, Object.class));
+        } catch (ReflectiveOperationException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
+
+    @Getter private final String name;
+    private final List<MethodHandle> overloads;
+
+    // linked targets by argument types, shared by every call site of the function
+    private final Map<List<Class<?>>, MethodHandle> linked = new ConcurrentHashMap<>();
+
+    private BHostFunction(String name, List<MethodHandle> overloads) {
+        this.name = name;
+        this.overloads = overloads;
+    }
+
+    /**
+     * @param owner the class declaring the methods
+     * @param method the name of the public static methods, all of its overloads can be called
+     */
+    public static BHostFunction of(Class<?> owner, String method) {
+        List<MethodHandle> overloads = new ArrayList<>();
+        for (Method candidate : methods(owner, method)) {
+            if (Modifier.isStatic(candidate.getModifiers())) overloads.add(unreflect(candidate));
+        }
+        return create(method, overloads, owner);
+    }
+
+    /**
+     * @param receiver the object to call the methods on
+     * @param method the name of the public instance methods, all of its overloads can be called
+     */
+    public static BHostFunction of(Object receiver, String method) {
+        List<MethodHandle> overloads = new ArrayList<>();
+        for (Method candidate : methods(receiver.getClass(), method)) {
+            if (!Modifier.isStatic(candidate.getModifiers())) overloads.add(unreflect(candidate).bindTo(receiver));
+        }
+        return create(method, overloads, receiver.getClass());
+    }
+
+    /**
+     * @param name the name the function reports in errors
+     * @param handles the overloads of the function
+     */
+    public static BHostFunction of(String name, MethodHandle... handles) {
+        return new BHostFunction(name, Collections.unmodifiableList(Arrays.asList(handles.clone())));
+    }
+
+    /**
+     * Link the overload that fits the types of the arguments
+     *
+     * @param types the classes of the arguments, null for null arguments
+     * @return a handle of type (Object[])Object that converts the arguments and the result
+     * @throws IllegalArgumentException if no overload can take the arguments
+     */
+    public MethodHandle link(Class<?>[] types) {
+        List<Class<?>> key = Arrays.asList(types);
+        MethodHandle target = this.linked.get(key);
+        if (target == null) {
+            target = this.adapt(this.select(types), types.length);
+            this.linked.putIfAbsent(key, target);
+        }
+        return target;
+    }
+
+    @Override
+    public String toString() {
+        return "<native " + this.name + ">";
+    }
+
+    private MethodHandle select(Class<?>[] types) {
+        MethodHandle best = null;
+        int bestScore = Integer.MAX_VALUE;
+        for (MethodHandle overload : this.overloads) {
+            MethodType type = overload.type();
+            if (type.parameterCount() != types.length) continue;
+
+            int score = 0;
+            for (int i = 0; i < types.length && score >= 0; i++) {
+                int cost = cost(type.parameterType(i), types[i]);
+                score = cost < 0 ? -1 : score + cost;
+            }
+            if (score >= 0 && score < bestScore) {
+                best = overload;
+                bestScore = score;
+            }
+        }
+
+        if (best == null) throw new IllegalArgumentException("No overload of '" + this.name + "' takes " + describe(types) + ".");
+        return best;
+    }
+
+    private MethodHandle adapt(MethodHandle handle, int arity) {
+        MethodType type = handle.type();
+
+        MethodHandle[] filters = new MethodHandle[arity];
+        for (int i = 0; i < arity; i++) filters[i] = converter(type.parameterType(i));
+        handle = MethodHandles.filterArguments(handle, 0, filters);
+
+        Class<?> returned = type.returnType();
+        if (returned == void.class) handle = MethodHandles.filterReturnValue(handle, MethodHandles.constant(Object.class, null));
+        else if (returned == boolean.class || returned == Boolean.class || returned == String.class) handle = handle.asType(handle.type().changeReturnType(Object.class));
+        else if (returned.isPrimitive() && returned != char.class) handle = MethodHandles.filterReturnValue(MethodHandles.explicitCastArguments(handle, handle.type().changeReturnType(double.class)), FROM_DOUBLE);
+        else handle = MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)), FROM_JAVA);
+
+        handle = handle.asType(handle.type().changeReturnType(Object.class));
+        return handle.asSpreader(Object[].class, arity).asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /**
+     * @return a handle converting a script value to the parameter type
+     */
+    private static MethodHandle converter(Class<?> parameter) {
+        Class<?> primitive = MethodType.methodType(parameter).unwrap().returnType();
+        if (primitive == boolean.class) return TO_BOOLEAN.asType(MethodType.methodType(parameter, Object.class));
+        if (primitive.isPrimitive() && primitive != char.class && primitive != void.class) {
+            MethodHandle number = MethodHandles.explicitCastArguments(TO_DOUBLE, MethodType.methodType(primitive, Object.class));
+            return number.asType(MethodType.methodType(parameter, Object.class));
+        }
+        if (parameter == String.class || parameter == CharSequence.class) return TO_STRING.asType(MethodType.methodType(parameter, Object.class));
+        if (parameter == Number.class) return FROM_JAVA.asType(MethodType.methodType(Number.class, Object.class));
+        return TO_JAVA.asType(MethodType.methodType(parameter, Object.class));
+    }
+
+    /**
+     * @return how well an argument fits a parameter, lower is better, -1 if it does not fit
+     */
+    private static int cost(Class<?> parameter, Class<?> argument) {
+        // primitives and their wrappers alike
+        Class<?> primitive = MethodType.methodType(parameter).unwrap().returnType();
+        if (argument == null) return primitive.isPrimitive() ? -1 : 1;
+        if (parameter == Object.class) return 3;
+
+        if (argument == Double.class) {
+            if (primitive == double.class) return 0;
+            if (primitive.isPrimitive() && primitive != boolean.class && primitive != char.class && primitive != void.class) return 1;
+            return parameter == Number.class ? 2 : -1;
+        }
+        if (argument == String.class || argument == BString.class) {
+            if (parameter == String.class) return 0;
+            return parameter == CharSequence.class ? 1 : -1;
+        }
+        if (argument == Boolean.class) return primitive == boolean.class ? 0 : -1;
+        return !parameter.isPrimitive() && parameter.isAssignableFrom(argument) ? 2 : -1;
+    }
+
+    private static List<Method> methods(Class<?> owner, String name) {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : owner.getMethods()) {
+            if (method.getName().equals(name) && !method.isVarArgs()) methods.add(method);
+        }
+        return methods;
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            // public methods of classes that are not public themselves still need to be made accessible
+            method.trySetAccessible();
+            return LOOKUP.unreflect(method);
+        } catch (IllegalAccessException exception) {
+            throw new BScriptException("Cannot access " + method + ": " + exception.getMessage());
+        }
+    }
+
+    private static BHostFunction create(String name, List<MethodHandle> overloads, Class<?> owner) {
+        if (overloads.isEmpty()) throw new BScriptException("No public method '" + name + "' in " + owner.getName() + ".");
+        return new BHostFunction(name, Collections.unmodifiableList(overloads));
+    }
+
+    private static String describe(Class<?>[] types) {
+        if (types.length == 0) return "no arguments";
+
+        StringBuilder builder = new StringBuilder();
+        for (Class<?> type : types) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(type == null ? "null" : type == BString.class ? "String" : type.getSimpleName());
+        }
+        return "(" + builder + ")";
+    }
+
+    private static double toDouble(Object value) {
+        return (Double)value;
+    }
+
+    private static String toString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static boolean toBoolean(Object value) {
+        return (Boolean)value;
+    }
+
+    private static Object fromJava(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) return ((Number)value).doubleValue();
+        if (value instanceof Character) return value.toString();
+        return value;
+    }
+
+}
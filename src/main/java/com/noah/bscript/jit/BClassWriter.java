@@ -0,0 +1,354 @@
+package com.noah.bscript.jit;
+
+import com.noah.bscript.exceptions.BCompileException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal class file writer, just enough to emit the classes generated by
+ * the {@link BJitCompiler}. Classes are written as version 49 so the verifier
+ * infers types itself and no stack map frames have to be computed.
+ */
+public class BClassWriter {
+
+    public static final int VERSION = 49;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    // the subset of JVM instructions we emit
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int ICONST_1 = 0x04;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC_W = 0x13;
+    public static final int ALOAD = 0x19;
+    public static final int AALOAD = 0x32;
+    public static final int AASTORE = 0x53;
+    public static final int ASTORE = 0x3a;
+    public static final int POP = 0x57;
+    public static final int DUP = 0x59;
+    public static final int DUP_X2 = 0x5b;
+    public static final int IXOR = 0x82;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int GOTO = 0xa7;
+    public static final int RETURN = 0xb1;
+    public static final int GETSTATIC = 0xb2;
+    public static final int GETFIELD = 0xb4;
+    public static final int PUTFIELD = 0xb5;
+    public static final int INVOKEVIRTUAL = 0xb6;
+    public static final int INVOKESPECIAL = 0xb7;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int INVOKEINTERFACE = 0xb9;
+    public static final int ANEWARRAY = 0xbd;
+    public static final int CHECKCAST = 0xc0;
+
+    private static final int MAX_CODE_LENGTH = 0xFFFF;
+
+    private final ByteArrayOutputStream pool;
+    private final Map<String, Integer> poolIndexes;
+    private int poolCount;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<int[]> fields;
+    private final List<Code> methods;
+
+    public BClassWriter(String name, String superName, String... interfaceNames) {
+        this.pool = new ByteArrayOutputStream();
+        this.poolIndexes = new HashMap<>();
+        this.poolCount = 1;
+
+        this.thisClass = this.classReference(name);
+        this.superClass = this.classReference(superName);
+        this.interfaces = Arrays.stream(interfaceNames).mapToInt(this::classReference).toArray();
+        this.fields = new ArrayList<>();
+        this.methods = new ArrayList<>();
+    }
+
+    /**
+     * Declare a field on the class
+     *
+     * @param access the access flags
+     * @param name the name of the field
+     * @param descriptor the JVM descriptor of the field
+     */
+    public void field(int access, String name, String descriptor) {
+        this.fields.add(new int[] { access, this.utf8(name), this.utf8(descriptor) });
+    }
+
+    /**
+     * Start writing a new method
+     *
+     * @param access the access flags
+     * @param name the name of the method
+     * @param descriptor the JVM descriptor of the method
+     * @param maxLocals the amount of local variable slots taken by the parameters
+     * @return the {@link Code} to write the body into
+     */
+    public Code method(int access, String name, String descriptor, int maxLocals) {
+        Code code = new Code(access, this.utf8(name), this.utf8(descriptor), maxLocals);
+        this.methods.add(code);
+        return code;
+    }
+
+    public byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int codeAttribute = this.utf8("Code");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(this.poolCount);
+            this.pool.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(this.thisClass);
+            out.writeShort(this.superClass);
+            out.writeShort(this.interfaces.length);
+            for (int index : this.interfaces) out.writeShort(index);
+
+            out.writeShort(this.fields.size());
+            for (int[] field : this.fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0); // attributes
+            }
+
+            out.writeShort(this.methods.size());
+            for (Code method : this.methods) method.write(out, codeAttribute);
+            out.writeShort(0); // attributes
+
+            return bytes.toByteArray();
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // CONSTANT POOL
+    ///////////////////////////////////////////////////
+
+    public int utf8(String value) {
+        if (value.length() > 0xFFFF / 3) throw new BCompileException("String constant too long.");
+        return this.entry("U" + value, out -> { out.writeByte(1); out.writeUTF(value); });
+    }
+
+    public int string(String value) {
+        int utf8 = this.utf8(value);
+        return this.entry("S" + value, out -> { out.writeByte(8); out.writeShort(utf8); });
+    }
+
+    public int classReference(String name) {
+        int utf8 = this.utf8(name);
+        return this.entry("C" + name, out -> { out.writeByte(7); out.writeShort(utf8); });
+    }
+
+    public int fieldReference(String owner, String name, String descriptor) {
+        return this.member(9, owner, name, descriptor);
+    }
+
+    public int methodReference(String owner, String name, String descriptor) {
+        return this.member(10, owner, name, descriptor);
+    }
+
+    public int interfaceMethodReference(String owner, String name, String descriptor) {
+        return this.member(11, owner, name, descriptor);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = this.classReference(owner);
+        int nameIndex = this.utf8(name);
+        int descriptorIndex = this.utf8(descriptor);
+        int nameAndType = this.entry("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return this.entry(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int entry(String key, PoolWriter writer) {
+        Integer index = this.poolIndexes.get(key);
+        if (index != null) return index;
+
+        try {
+            writer.write(new DataOutputStream(this.pool));
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+
+        index = this.poolCount;
+        this.poolCount++;
+        if (this.poolCount > 0xFFFF) throw new BCompileException("Constant pool overflow.");
+        this.poolIndexes.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    ///////////////////////////////////////////////////
+    // CODE
+    ///////////////////////////////////////////////////
+
+    /**
+     * A branch target, resolved once {@link Code#mark(Label)} is called
+     */
+    public static class Label {
+
+        private int position = -1;
+        private final List<Integer> branches = new ArrayList<>();
+
+    }
+
+    /**
+     * The body of a single method
+     */
+    public static class Code {
+
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private int maxLocals;
+
+        private byte[] code = new byte[128];
+        private int length;
+        private int stack;
+        private int maxStack;
+
+        private Code(int access, int name, int descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Emit an instruction without operands
+         *
+         * @param opCode the instruction
+         * @param stackDelta how much the instruction grows (or shrinks) the operand stack
+         */
+        public Code op(int opCode, int stackDelta) {
+            this.u1(opCode);
+            return this.adjust(stackDelta);
+        }
+
+        public Code op(int opCode, int operand, int stackDelta) {
+            this.u1(opCode);
+            this.u2(operand);
+            return this.adjust(stackDelta);
+        }
+
+        /**
+         * Emit an invokeinterface instruction
+         *
+         * @param method the interface method reference
+         * @param arguments the amount of stack slots the receiver and arguments take
+         * @param stackDelta how much the instruction grows (or shrinks) the operand stack
+         */
+        public Code invokeInterface(int method, int arguments, int stackDelta) {
+            this.u1(INVOKEINTERFACE);
+            this.u2(method);
+            this.u1(arguments);
+            this.u1(0);
+            return this.adjust(stackDelta);
+        }
+
+        public Code local(int opCode, int slot, int stackDelta) {
+            this.maxLocals = Math.max(this.maxLocals, slot + 1);
+            if (slot > 0xFF) {
+                this.u1(0xc4); // wide
+                this.u1(opCode);
+                this.u2(slot);
+            } else {
+                this.u1(opCode);
+                this.u1(slot);
+            }
+            return this.adjust(stackDelta);
+        }
+
+        public Code branch(int opCode, Label label, int stackDelta) {
+            int at = this.length;
+            this.u1(opCode);
+            if (label.position >= 0) this.s2(label.position - at);
+            else {
+                label.branches.add(at);
+                this.u2(0);
+            }
+            return this.adjust(stackDelta);
+        }
+
+        public void mark(Label label) {
+            label.position = this.length;
+            for (int at : label.branches) {
+                int offset = label.position - at;
+                if (offset > Short.MAX_VALUE) throw new BCompileException("Branch offset too large.");
+                this.code[at + 1] = (byte)(offset >> 8);
+                this.code[at + 2] = (byte)offset;
+            }
+            label.branches.clear();
+        }
+
+        private Code adjust(int stackDelta) {
+            this.stack += stackDelta;
+            this.maxStack = Math.max(this.maxStack, this.stack);
+            return this;
+        }
+
+        private void s2(int value) {
+            if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) throw new BCompileException("Branch offset too large.");
+            this.u2(value & 0xFFFF);
+        }
+
+        private void u2(int value) {
+            this.u1(value >> 8);
+            this.u1(value);
+        }
+
+        private void u1(int value) {
+            if (this.length == this.code.length) this.code = Arrays.copyOf(this.code, this.length * 2);
+            this.code[this.length++] = (byte)value;
+        }
+
+        private void write(DataOutputStream out, int codeAttribute) throws IOException {
+            if (this.length > MAX_CODE_LENGTH) throw new BCompileException("Method too large.");
+
+            out.writeShort(this.access);
+            out.writeShort(this.name);
+            out.writeShort(this.descriptor);
+            out.writeShort(1);
+
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + this.length);
+            out.writeShort(this.maxStack);
+            out.writeShort(this.maxLocals);
+            out.writeInt(this.length);
+            out.write(this.code, 0, this.length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+
+    }
+
+}
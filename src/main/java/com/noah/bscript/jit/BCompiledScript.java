@@ -0,0 +1,17 @@
+package com.noah.bscript.jit;
+
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.runtime.BEnvironment;
+
+/**
+ * A script compiled to a JVM class by the {@link BJitCompiler}
+ */
+public interface BCompiledScript {
+
+    /**
+     * @param globals the global variables of the run
+     * @param out the sink print statements write to
+     */
+    void run(BEnvironment globals, BOutputSink out);
+
+}
@@ -0,0 +1,422 @@
+package com.noah.bscript.jit;
+
+import com.noah.bscript.exceptions.BCompileException;
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.noah.bscript.jit.BClassWriter.*;
+
+/**
+ * Compiles resolved statements into a hidden JVM class, so control flow
+ * becomes real JVM branches and locals that HotSpot can optimize. Operators
+ * call straight into {@link com.noah.bscript.runtime.BOperations} so the
+ * semantics match the interpreter exactly.
+ */
+public class BJitCompiler implements BExpression.Visitor<Void>, BStatement.Visitor<Void> {
+
+    private static final String CLASS_NAME = "com/noah/bscript/jit/BGeneratedScript";
+    private static final String COMPILED_SCRIPT = "com/noah/bscript/jit/BCompiledScript";
+    private static final String OPERATIONS = "com/noah/bscript/runtime/BOperations";
+    private static final String ENVIRONMENT = "com/noah/bscript/runtime/BEnvironment";
+    private static final String TOKEN = "com/noah/bscript/lang/BToken";
+    private static final String OUTPUT_SINK = "com/noah/bscript/output/BOutputSink";
+    private static final String CALL_SITE = "com/noah/bscript/host/BCallSite";
+
+    private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+    private static final String TOKEN_DESCRIPTOR = "L" + TOKEN + ";";
+    private static final String OPERATOR_DESCRIPTOR = "(" + TOKEN_DESCRIPTOR + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR + ")";
+
+    // the local variable layout of the generated run method
+    private static final int THIS = 0;
+    private static final int GLOBALS = 1;
+    private static final int OUT = 2;
+    private static final int CONSTANTS = 3;
+    private static final int FIRST_LOCAL = 4;
+
+    private BClassWriter writer;
+    private Code code;
+    private final List<Object> constants;
+    private final Map<Object, Integer> constantIndexes;
+
+    private final List<Integer> bases;
+    private int nextLocal;
+
+    public BJitCompiler() {
+        this.constants = new ArrayList<>();
+        this.constantIndexes = new HashMap<>();
+        this.bases = new ArrayList<>();
+    }
+
+    /**
+     * Compile the statements of a script into a hidden class
+     *
+     * @param statements the resolved statements
+     * @return an instance of the generated class
+     * @throws BCompileException if the script cannot be compiled
+     */
+    public BCompiledScript compile(List<BStatement> statements) {
+        this.writer = new BClassWriter(CLASS_NAME, "java/lang/Object", COMPILED_SCRIPT);
+        this.writer.field(ACC_PRIVATE | ACC_FINAL, "constants", "[Ljava/lang/Object;");
+
+        this.code = this.writer.method(ACC_PUBLIC, "run", "(L" + ENVIRONMENT + ";L" + OUTPUT_SINK + ";)V", 3);
+        this.code.local(ALOAD, THIS, 1)
+                 .op(GETFIELD, this.writer.fieldReference(CLASS_NAME, "constants", "[Ljava/lang/Object;"), 0)
+                 .local(ASTORE, CONSTANTS, -1);
+        this.nextLocal = FIRST_LOCAL;
+        for (BStatement statement : statements) this.compile(statement);
+        this.code.op(RETURN, 0);
+
+        this.writer.method(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2)
+                   .local(ALOAD, 0, 1)
+                   .op(INVOKESPECIAL, this.writer.methodReference("java/lang/Object", "<init>", "()V"), -1)
+                   .local(ALOAD, 0, 1)
+                   .local(ALOAD, 1, 1)
+                   .op(PUTFIELD, this.writer.fieldReference(CLASS_NAME, "constants", "[Ljava/lang/Object;"), -2)
+                   .op(RETURN, 0);
+
+        return this.define(this.writer.toByteArray(), this.constants.toArray());
+    }
+
+    private BCompiledScript define(byte[] bytes, Object[] constants) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodType type = MethodType.methodType(void.class, Object[].class);
+            return (BCompiledScript)lookup.findConstructor(lookup.lookupClass(), type).invoke(constants);
+        } catch (LinkageError | ReflectiveOperationException exception) {
+            throw new BCompileException("Generated class was rejected: " + exception);
+        } catch (Throwable throwable) {
+            throw new IllegalStateException(throwable);
+        }
+    }
+
+    ///////////////////////////////////////////////////
+    // STATEMENTS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitIf(BStatement.If statement) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+
+        this.condition(statement.getExpression());
+        this.code.branch(IFEQ, elseBranch, -1);
+        this.compile(statement.getThenBranch());
+        this.code.branch(GOTO, end, 0);
+        this.code.mark(elseBranch);
+        if (statement.getElseBranch() != null) this.compile(statement.getElseBranch());
+        this.code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(BStatement.While statement) {
+        Label start = new Label();
+        Label end = new Label();
+
+        this.code.mark(start);
+        this.condition(statement.getCondition());
+        this.code.branch(IFEQ, end, -1);
+        this.compile(statement.getBody());
+        this.code.branch(GOTO, start, 0);
+        this.code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(BStatement.For statement) {
+        int base = this.enterScope(statement.getSlotCount());
+        if (statement.getInitializer() != null) this.compile(statement.getInitializer());
+
+        Label start = new Label();
+        Label end = new Label();
+
+        this.code.mark(start);
+        this.condition(statement.getCondition());
+        this.code.branch(IFEQ, end, -1);
+        this.compile(statement.getBody());
+        if (statement.getIncrement() != null) {
+            this.compile(statement.getIncrement());
+            this.code.op(POP, -1);
+        }
+        this.code.branch(GOTO, start, 0);
+        this.code.mark(end);
+
+        this.exitScope(base);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(BStatement.Block statement) {
+        int base = this.enterScope(statement.getSlotCount());
+        for (BStatement inner : statement.getStatements()) this.compile(inner);
+        this.exitScope(base);
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(BStatement.Expression statement) {
+        this.compile(statement.getExpression());
+        this.code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(BStatement.Let statement) {
+        if (statement.getSlot() < 0) {
+            this.code.local(ALOAD, GLOBALS, 1);
+            this.token(statement.getName());
+            this.initializer(statement.getInitializer());
+            this.code.op(INVOKEVIRTUAL, this.writer.methodReference(ENVIRONMENT, "define", "(" + TOKEN_DESCRIPTOR + OBJECT_DESCRIPTOR + ")V"), -3);
+            return null;
+        }
+
+        this.initializer(statement.getInitializer());
+        this.code.local(ASTORE, this.local(0, statement.getSlot()), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(BStatement.Print statement) {
+        this.code.local(ALOAD, OUT, 1);
+        this.compile(statement.getExpression());
+        this.code.invokeInterface(this.writer.interfaceMethodReference(OUTPUT_SINK, "print", "(" + OBJECT_DESCRIPTOR + ")V"), 2, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(BStatement.Function statement) {
+        throw new BCompileException("Functions are not supported by the JVM backend.");
+    }
+
+    @Override
+    public Void visitReturn(BStatement.Return statement) {
+        throw new BCompileException("Functions are not supported by the JVM backend.");
+    }
+
+    ///////////////////////////////////////////////////
+    // EXPRESSIONS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitAssign(BExpression.Assign expression) {
+        if (expression.getDepth() < 0) {
+            this.code.local(ALOAD, GLOBALS, 1);
+            this.token(expression.getName());
+            this.compile(expression.getValue());
+            this.code.op(DUP_X2, 1)
+                     .op(INVOKEVIRTUAL, this.writer.methodReference(ENVIRONMENT, "redefine", "(" + TOKEN_DESCRIPTOR + OBJECT_DESCRIPTOR + ")V"), -3);
+            return null;
+        }
+
+        this.compile(expression.getValue());
+        this.code.op(DUP, 1)
+                 .local(ASTORE, this.local(expression.getDepth(), expression.getSlot()), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitLetExpression(BExpression.Let expression) {
+        if (expression.getDepth() < 0) {
+            this.code.local(ALOAD, GLOBALS, 1);
+            this.token(expression.getName());
+            this.code.op(INVOKEVIRTUAL, this.writer.methodReference(ENVIRONMENT, "get", "(" + TOKEN_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR), -1);
+            return null;
+        }
+
+        this.code.local(ALOAD, this.local(expression.getDepth(), expression.getSlot()), 1);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(BExpression.Binary expression) {
+        BToken operator = expression.getOperator();
+        switch (operator.getType()) {
+            case EQUAL_EQUAL:
+            case NOT_EQUAL:
+                this.compile(expression.getLeft());
+                this.compile(expression.getRight());
+                this.code.op(INVOKESTATIC, this.writer.methodReference(OPERATIONS, "isEqual", "(" + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR + ")Z"), -1);
+                if (operator.getType() == BToken.Type.NOT_EQUAL) this.not();
+                this.box();
+                return null;
+            case GREATER: return this.comparison("greater", expression);
+            case GREATER_EQUAL: return this.comparison("greaterEqual", expression);
+            case LESS: return this.comparison("less", expression);
+            case LESS_EQUAL: return this.comparison("lessEqual", expression);
+            case MINUS: return this.arithmetic("subtract", expression);
+            case SLASH: return this.arithmetic("divide", expression);
+            case STAR: return this.arithmetic("multiply", expression);
+            case PLUS: return this.arithmetic("add", expression);
+            default: throw new BCompileException("Unsupported binary operator: " + operator.getLexeme());
+        }
+    }
+
+    @Override
+    public Void visitGrouping(BExpression.Grouping expression) {
+        this.compile(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(BExpression.Literal expression) {
+        Object value = expression.getValue();
+        if (value == null) this.code.op(ACONST_NULL, 1);
+        else if (value instanceof Boolean) this.code.op(GETSTATIC, this.writer.fieldReference("java/lang/Boolean", (boolean)value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"), 1);
+        else if (value instanceof String) this.code.op(LDC_W, this.writer.string((String)value), 1);
+        else this.constant(value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(BExpression.Logical expression) {
+        Label end = new Label();
+
+        this.compile(expression.getLeft());
+        this.code.op(DUP, 1);
+        this.truthy();
+        this.code.branch(expression.getOperator().getType() == BToken.Type.OR ? IFNE : IFEQ, end, -1)
+                 .op(POP, -1);
+        this.compile(expression.getRight());
+        this.code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(BExpression.Unary expression) {
+        BToken operator = expression.getOperator();
+        switch (operator.getType()) {
+            case MINUS:
+                this.token(operator);
+                this.compile(expression.getExpression());
+                this.code.op(INVOKESTATIC, this.writer.methodReference(OPERATIONS, "negate", "(" + TOKEN_DESCRIPTOR + OBJECT_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR), -1);
+                return null;
+            case NOT:
+                this.condition(expression.getExpression());
+                this.not();
+                this.box();
+                return null;
+            default: throw new BCompileException("Unsupported unary operator: " + operator.getLexeme());
+        }
+    }
+
+    @Override
+    public Void visitCall(BExpression.Call expression) {
+        // version 49 classes cannot use invokedynamic, so the site is called like any other object
+        this.constant(expression.getSite());
+        this.code.op(CHECKCAST, this.writer.classReference(CALL_SITE), 0);
+        this.compile(expression.getCallee());
+
+        List<BExpression> arguments = expression.getArguments();
+        this.code.op(SIPUSH, arguments.size(), 1)
+                 .op(ANEWARRAY, this.writer.classReference("java/lang/Object"), 0);
+        for (int i = 0; i < arguments.size(); i++) {
+            this.code.op(DUP, 1).op(SIPUSH, i, 1);
+            this.compile(arguments.get(i));
+            this.code.op(AASTORE, -3);
+        }
+
+        this.code.op(INVOKEVIRTUAL, this.writer.methodReference(CALL_SITE, "call", "(" + OBJECT_DESCRIPTOR + "[" + OBJECT_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR), -2);
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // UTILITY
+    ///////////////////////////////////////////////////
+
+    private void compile(BStatement statement) {
+        if (statement == null) throw new BCompileException("Cannot compile a script that failed to parse.");
+        statement.accept(this);
+    }
+
+    private void compile(BExpression expression) {
+        expression.accept(this);
+    }
+
+    private void initializer(BExpression initializer) {
+        if (initializer != null) this.compile(initializer);
+        else this.code.op(ACONST_NULL, 1);
+    }
+
+    private Void arithmetic(String method, BExpression.Binary expression) {
+        this.token(expression.getOperator());
+        this.compile(expression.getLeft());
+        this.compile(expression.getRight());
+        this.code.op(INVOKESTATIC, this.writer.methodReference(OPERATIONS, method, OPERATOR_DESCRIPTOR + OBJECT_DESCRIPTOR), -2);
+        return null;
+    }
+
+    private Void comparison(String method, BExpression.Binary expression) {
+        this.token(expression.getOperator());
+        this.compile(expression.getLeft());
+        this.compile(expression.getRight());
+        this.code.op(INVOKESTATIC, this.writer.methodReference(OPERATIONS, method, OPERATOR_DESCRIPTOR + "Z"), -2);
+        this.box();
+        return null;
+    }
+
+    /**
+     * Compile an expression and leave its truthiness as an int on the stack
+     */
+    private void condition(BExpression expression) {
+        this.compile(expression);
+        this.truthy();
+    }
+
+    private void truthy() {
+        this.code.op(INVOKESTATIC, this.writer.methodReference(OPERATIONS, "isTruthy", "(" + OBJECT_DESCRIPTOR + ")Z"), 0);
+    }
+
+    private void not() {
+        this.code.op(ICONST_1, 1).op(IXOR, -1);
+    }
+
+    private void box() {
+        this.code.op(INVOKESTATIC, this.writer.methodReference("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+    }
+
+    private void token(BToken token) {
+        this.constant(token);
+        this.code.op(CHECKCAST, this.writer.classReference(TOKEN), 0);
+    }
+
+    private void constant(Object value) {
+        int index = this.constantIndexes.computeIfAbsent(value, key -> {
+            this.constants.add(key);
+            return this.constants.size() - 1;
+        });
+        if (index > Short.MAX_VALUE) throw new BCompileException("Too many constants.");
+
+        this.code.local(ALOAD, CONSTANTS, 1)
+                 .op(SIPUSH, index, 1)
+                 .op(AALOAD, -1);
+    }
+
+    /**
+     * @param slotCount the amount of locals the scope declares
+     * @return the base of the scope, to pass to {@link #exitScope(int)}
+     */
+    private int enterScope(int slotCount) {
+        int base = this.nextLocal;
+        this.bases.add(base);
+        this.nextLocal += slotCount;
+        return base;
+    }
+
+    private void exitScope(int base) {
+        this.bases.remove(this.bases.size() - 1);
+        this.nextLocal = base;
+    }
+
+    private int local(int depth, int slot) {
+        return this.bases.get(this.bases.size() - 1 - depth) + slot;
+    }
+
+}
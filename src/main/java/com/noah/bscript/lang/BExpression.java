@@ -1,6 +1,11 @@
 package com.noah.bscript.lang;
 
+import com.noah.bscript.host.BCallSite;
+import com.noah.bscript.runtime.BBinaryOperation;
 import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
 
 public abstract class BExpression {
 
@@ -13,6 +18,7 @@ public abstract class BExpression {
         T visitUnary(Unary expression);
         T visitLetExpression(Let expression);
         T visitAssign(Assign expression);
+        T visitCall(Call expression);
 
     }
 
@@ -22,11 +28,25 @@ public abstract class BExpression {
         final BToken name;
         final BExpression value;
 
+        private int depth = -1;
+        private int slot = -1;
+
         public Assign(BToken name, BExpression value) {
             this.name = name;
             this.value = value;
         }
 
+        /**
+         * Bind this assignment to a local slot, a depth of -1 means a global
+         *
+         * @param depth the amount of frames to walk up
+         * @param slot the slot in that frame
+         */
+        public void resolve(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
         @Override
         public <T> T accept(Visitor<T> visitor) {
             return visitor.visitAssign(this);
@@ -40,6 +60,8 @@ public abstract class BExpression {
         final BToken operator;
         final BExpression right;
 
+        @Setter private BBinaryOperation operation = BBinaryOperation.UNINITIALIZED;
+
         public Binary(BExpression left, BToken operator, BExpression right) {
             this.left = left;
             this.operator = operator;
@@ -52,6 +74,29 @@ public abstract class BExpression {
         }
     }
 
+    @Getter
+    public static class Call extends BExpression {
+
+        final BExpression callee;
+        final BToken paren;
+        final List<BExpression> arguments;
+
+        // the inline cache of this call, shared by every run of the program
+        private final BCallSite site;
+
+        public Call(BExpression callee, BToken paren, List<BExpression> arguments) {
+            this.callee = callee;
+            this.paren = paren;
+            this.arguments = arguments;
+            this.site = new BCallSite(paren, arguments.size());
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitCall(this);
+        }
+    }
+
     @Getter
     public static class Grouping extends BExpression {
 
@@ -123,10 +168,24 @@ public abstract class BExpression {
 
         final BToken name;
 
+        private int depth = -1;
+        private int slot = -1;
+
         public Let(BToken name) {
             this.name = name;
         }
 
+        /**
+         * Bind this variable to a local slot, a depth of -1 means a global
+         *
+         * @param depth the amount of frames to walk up
+         * @param slot the slot in that frame
+         */
+        public void resolve(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
         @Override
         public <T> T accept(Visitor<T> visitor) {
             return visitor.visitLetExpression(this);
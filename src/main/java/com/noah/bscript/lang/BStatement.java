@@ -1,6 +1,7 @@
 package com.noah.bscript.lang;
 
 import lombok.Getter;
+import lombok.Setter;
 
 import java.util.List;
 
@@ -10,12 +11,16 @@ public abstract class BStatement {
 
         T visitIf(If statement);
         T visitWhile(While statement);
+        T visitFor(For statement);
 
         T visitBlock(Block statement);
         T visitExpression(Expression statement);
         T visitLetStatement(Let statement);
         T visitPrint(Print statement);
 
+        T visitFunction(Function statement);
+        T visitReturn(Return statement);
+
     }
 
     @Getter
@@ -55,10 +60,50 @@ public abstract class BStatement {
         }
     }
 
+    /**
+     * A for loop. The initializer is declared in a scope of its own that
+     * lives as long as the loop, the body and the increment run in it.
+     */
+    @Getter
+    public static class For extends BStatement {
+
+        private final BStatement initializer;
+        private final BExpression condition;
+        private final BExpression increment;
+        private final BStatement body;
+
+        @Setter private int slotCount;
+
+        // the slot of a numeric induction variable, -1 if this is not a counting loop
+        @Setter private int counter = -1;
+
+        // what the increment adds to the counter
+        @Setter private double step;
+
+        // whether the body or the bound of the condition read the counter
+        @Setter private boolean counterRead;
+
+        public For(BStatement initializer, BExpression condition, BExpression increment, BStatement body) {
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visitFor(this);
+        }
+    }
+
     @Getter
     public static class Block extends BStatement {
 
         private final List<BStatement> statements;
+        @Setter private int slotCount;
+
+        // no function closes over the frame, so loops can run every iteration in the same one
+        @Setter private boolean reusable;
 
         public Block(List<BStatement> statements) {
             this.statements = statements;
@@ -89,6 +134,8 @@ public abstract class BStatement {
         final BToken name;
         final BExpression initializer;
 
+        @Setter private int slot = -1;
+
         public Let(BToken name, BExpression initializer) {
             this.name = name;
             this.initializer = initializer;
@@ -111,6 +158,58 @@ public abstract class BStatement {
         public <T> T accept(Visitor<T> visitor) { return visitor.visitPrint(this); }
     }
 
+    @Getter
+    public static class Function extends BStatement {
+
+        final BToken name;
+        final List<BToken> parameters;
+        final List<BStatement> body;
+
+        // the slot of the function itself, -1 for a global
+        @Setter private int slot = -1;
+
+        // the size of the frame of a call, the parameters come first
+        @Setter private int slotCount;
+
+        public Function(BToken name, List<BToken> parameters, List<BStatement> body) {
+            this.name = name;
+            this.parameters = parameters;
+            this.body = body;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) { return visitor.visitFunction(this); }
+    }
+
+    @Getter
+    public static class Return extends BStatement {
+
+        final BToken keyword;
+        final BExpression value;
+
+        public Return(BToken keyword, BExpression value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) { return visitor.visitReturn(this); }
+    }
+
+    /**
+     * The line the statement starts at, 0 if it is not known
+     */
+    @Getter private int line;
+
+    /**
+     * @param line the line the statement starts at
+     * @return this statement
+     */
+    public BStatement at(int line) {
+        this.line = line;
+        return this;
+    }
+
     public abstract <T> T accept(Visitor<T> visitor);
 
 }
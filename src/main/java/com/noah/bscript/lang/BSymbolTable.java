@@ -0,0 +1,145 @@
+package com.noah.bscript.lang;
+
+import java.util.Arrays;
+
+/**
+ * Interns names into dense integer ids, shared by every script. Each name is
+ * hashed once when it is lexed, after that it is only passed around as its id.
+ * The keywords of the language are interned first, so looking up a keyword
+ * is a bounds check on the id.
+ *
+ * <p>Names are never removed, the table holds every name any script of the
+ * process was lexed with. Code that only reads names, such as looking up a
+ * variable from Java, uses {@link #lookup(String)} so that it does not add
+ * names nothing will ever define.
+ */
+public final class BSymbolTable {
+
+    private static final Object LOCK = new Object();
+
+    private static volatile String[] names = new String[64];
+    private static int[] hashes = new int[64];
+    private static int[] table = empty(128);
+    private static int size;
+
+    private static final BToken.Type[] KEYWORDS;
+
+    static {
+        BToken.Type[] keywords = new BToken.Type[BToken.Type.values().length];
+        for (BToken.Type type : BToken.Type.values()) {
+            if (type.getText() != null) keywords[intern(type.getText())] = type;
+        }
+        KEYWORDS = Arrays.copyOf(keywords, size);
+    }
+
+    private BSymbolTable() {}
+
+    /**
+     * @param name a name
+     * @return the id of the name
+     */
+    public static int intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * Find the id of a name without interning it
+     *
+     * @param name a name
+     * @return the id of the name, or -1 if it was never interned
+     */
+    public static int lookup(String name) {
+        int hash = name.hashCode();
+
+        synchronized (LOCK) {
+            int mask = table.length - 1;
+            for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+                int id = table[index];
+                if (id < 0) return -1;
+                if (hashes[id] == hash && names[id].equals(name)) return id;
+            }
+        }
+    }
+
+    /**
+     * Intern a name straight out of a character buffer, the name is only
+     * copied into a String the first time it is seen
+     *
+     * @param chars the characters
+     * @param offset the start of the name
+     * @param length the length of the name
+     * @return the id of the name
+     */
+    public static int intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) hash = 31 * hash + chars[i];
+
+        synchronized (LOCK) {
+            int mask = table.length - 1;
+            for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+                int id = table[index];
+                if (id < 0) return add(new String(chars, offset, length), hash, index);
+                if (hashes[id] == hash && matches(names[id], chars, offset, length)) return id;
+            }
+        }
+    }
+
+    /**
+     * @param id the id of a name
+     * @return the name
+     */
+    public static String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @param id the id of a name
+     * @return the keyword the name is, or null if it is not one
+     */
+    public static BToken.Type keyword(int id) {
+        return id < KEYWORDS.length ? KEYWORDS[id] : null;
+    }
+
+    private static int add(String name, int hash, int index) {
+        int id = size++;
+        if (id == names.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            names = Arrays.copyOf(names, id * 2);
+        }
+        names[id] = name;
+        hashes[id] = hash;
+        table[index] = id;
+
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    private static void rehash() {
+        table = empty(table.length * 2);
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int index = spread(hashes[id]) & mask;
+            while (table[index] >= 0) index = (index + 1) & mask;
+            table[index] = id;
+        }
+    }
+
+    private static boolean matches(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[offset + i]) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int[] empty(int length) {
+        int[] table = new int[length];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+}
@@ -3,7 +3,8 @@ package com.noah.bscript.lang;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.Map;
 
 @AllArgsConstructor
 @Getter
@@ -13,6 +14,14 @@ public class BToken {
     private String lexeme;
     private Object literal;
     private int position;
+    private int symbol;
+
+    /**
+     * Identifiers are interned into the {@link BSymbolTable}, other tokens have no symbol
+     */
+    public BToken(Type type, String lexeme, Object literal, int position) {
+        this(type, lexeme, literal, position, type == Type.IDENTIFIER ? BSymbolTable.intern(lexeme) : -1);
+    }
 
     @Getter
     public enum Type {
@@ -55,11 +64,15 @@ public class BToken {
         // OTHER
         EOF;
 
-        public static Type getByText(String text) {
-            for (Type type :  Type.values()) {
-                if (Objects.equals(type.getText(), text)) return type;
+        private static final Map<String, Type> KEYWORDS = new HashMap<>();
+        static {
+            for (Type type : Type.values()) {
+                if (type.getText() != null) KEYWORDS.put(type.getText(), type);
             }
-            return null;
+        }
+
+        public static Type getByText(String text) {
+            return KEYWORDS.get(text);
         }
 
         private String text;
@@ -0,0 +1,118 @@
+package com.noah.bscript.lang;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A compact list of tokens, stored as parallel arrays instead of one object
+ * per token. Lexemes are not copied out of the source, a {@link BToken} is
+ * only created for the tokens that are actually asked for.
+ */
+public class BTokenBuffer {
+
+    private static final BToken.Type[] TYPES = BToken.Type.values();
+
+    private final char[] source;
+    private int[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int[] symbols;
+    private int size;
+
+    /**
+     * @param source the characters the tokens point into
+     */
+    public BTokenBuffer(char[] source) {
+        this.source = source;
+
+        // most tokens are a few characters long
+        int capacity = Math.max(16, source.length / 4);
+        this.types = new int[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+        this.symbols = new int[capacity];
+    }
+
+    public void add(BToken.Type type, int start, int length, int line, int symbol) {
+        if (this.size == this.types.length) {
+            int capacity = this.size * 2;
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.lines = Arrays.copyOf(this.lines, capacity);
+            this.symbols = Arrays.copyOf(this.symbols, capacity);
+        }
+
+        this.types[this.size] = type.ordinal();
+        this.starts[this.size] = start;
+        this.lengths[this.size] = length;
+        this.lines[this.size] = line;
+        this.symbols[this.size] = symbol;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public BToken.Type type(int index) {
+        return TYPES[this.types[index]];
+    }
+
+    public int line(int index) {
+        return this.lines[index];
+    }
+
+    public int symbol(int index) {
+        return this.symbols[index];
+    }
+
+    /**
+     * @param index the index of a token
+     * @return the text of the token, as a view into the source
+     */
+    public CharSequence lexeme(int index) {
+        return CharBuffer.wrap(this.source, this.starts[index], this.lengths[index]);
+    }
+
+    /**
+     * @param index the index of a token
+     * @return the token as a {@link BToken}
+     */
+    public BToken token(int index) {
+        return token(this.source, this.type(index), this.starts[index], this.lengths[index], this.lines[index], this.symbols[index]);
+    }
+
+    /**
+     * Create a token out of the characters it was lexed from, turning its
+     * text into a literal where it has one
+     *
+     * @param source the characters of the source
+     * @param type the {@link BToken.Type}
+     * @param start the index of the first character of the token
+     * @param length the amount of characters in the token
+     * @param line the line of the token
+     * @param symbol the symbol id of identifiers and keywords, -1 for other tokens
+     * @return the {@link BToken}
+     */
+    public static BToken token(char[] source, BToken.Type type, int start, int length, int line, int symbol) {
+        switch (type) {
+            case EOF:
+                return new BToken(type, "<EOF>", null, line, -1);
+            case STRING:
+                return new BToken(type, new String(source, start, length), new String(source, start + 1, length - 2), line, -1);
+            case NUMBER:
+                String text = new String(source, start, length);
+                return new BToken(type, text, Double.parseDouble(text), line, -1);
+        }
+
+        if (symbol >= 0) {
+            String name = BSymbolTable.name(symbol);
+            return new BToken(type, name, name, line, symbol);
+        }
+        return new BToken(type, new String(source, start, length), null, line, -1);
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.noah.bscript.lang;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A source of tokens that are pulled one at a time, so a parser never needs
+ * all of the tokens of a script at once.
+ */
+public interface BTokenStream {
+
+    /**
+     * @return the next token, or an {@link BToken.Type#EOF} token once there are no more
+     */
+    BToken next();
+
+    /**
+     * @param tokens tokens that were already lexed, ending with an {@link BToken.Type#EOF} token
+     * @return a stream over the tokens
+     */
+    static BTokenStream of(List<BToken> tokens) {
+        Iterator<BToken> iterator = tokens.iterator();
+        BToken end = tokens.get(tokens.size() - 1);
+        return () -> iterator.hasNext() ? iterator.next() : end;
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.noah.bscript.metrics;
+
+import com.noah.bscript.BScriptCache;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what an engine loads and runs. Everything is recorded into striped
+ * counters, so runs on many threads do not contend on them.
+ */
+public class BEngineMetrics implements BEngineMetricsMBean {
+
+    public static final int DEFAULT_SLOWEST = 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATIONS = allocationsSupported();
+
+    private final BScriptCache cache;
+
+    /**
+     * How many scripts {@link #getSlowestScripts()} reports
+     */
+    @Getter @Setter private int slowest = DEFAULT_SLOWEST;
+
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final BHistogram lexLatency = new BHistogram();
+    private final BHistogram parseLatency = new BHistogram();
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder runFailures = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final BHistogram runLatency = new BHistogram();
+    private final BHistogram allocated = new BHistogram();
+    private final Map<String, Script> scripts = new ConcurrentHashMap<>();
+
+    /**
+     * @param cache the cache of the engine
+     */
+    public BEngineMetrics(BScriptCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * A script was loaded
+     *
+     * @param failed whether it failed to parse
+     * @param lexTime the nanoseconds spent lexing, or -1 if it was not lexed
+     * @param parseTime the nanoseconds spent parsing, or -1 if it was not parsed
+     */
+    public void loaded(boolean failed, long lexTime, long parseTime) {
+        this.loaded.increment();
+        if (failed) this.parseFailures.increment();
+        if (lexTime >= 0) this.lexLatency.record(lexTime);
+        if (parseTime >= 0) this.parseLatency.record(parseTime);
+    }
+
+    /**
+     * A program was run
+     *
+     * @param file the {@link File} of the program
+     * @param time the nanoseconds the run took
+     * @param allocated the bytes the run allocated, or -1 if they are not known
+     * @param statements the amount of statements that were executed
+     * @param failed whether the run failed
+     */
+    public void ran(File file, long time, long allocated, long statements, boolean failed) {
+        this.runs.increment();
+        if (failed) this.runFailures.increment();
+        this.statements.add(statements);
+        this.runLatency.record(time);
+        if (allocated >= 0) this.allocated.record(allocated);
+
+        this.scripts.computeIfAbsent(file.getPath(), Script::new).ran(time);
+    }
+
+    /**
+     * @return the bytes the current thread allocated so far, or -1 if the JVM does not count them
+     */
+    public static long allocatedBytes() {
+        if (!ALLOCATIONS) return -1;
+        return ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Override
+    public long getScriptsLoaded() {
+        return this.loaded.sum();
+    }
+
+    @Override
+    public long getParseFailures() {
+        return this.parseFailures.sum();
+    }
+
+    @Override
+    public double getLexLatencyP50() {
+        return millis(this.lexLatency.getPercentile(50));
+    }
+
+    @Override
+    public double getLexLatencyP99() {
+        return millis(this.lexLatency.getPercentile(99));
+    }
+
+    @Override
+    public double getParseLatencyP50() {
+        return millis(this.parseLatency.getPercentile(50));
+    }
+
+    @Override
+    public double getParseLatencyP99() {
+        return millis(this.parseLatency.getPercentile(99));
+    }
+
+    @Override
+    public long getRuns() {
+        return this.runs.sum();
+    }
+
+    @Override
+    public long getRunFailures() {
+        return this.runFailures.sum();
+    }
+
+    @Override
+    public double getRunLatencyP50() {
+        return millis(this.runLatency.getPercentile(50));
+    }
+
+    @Override
+    public double getRunLatencyP99() {
+        return millis(this.runLatency.getPercentile(99));
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return this.statements.sum();
+    }
+
+    @Override
+    public long getAllocatedBytesPerRunP50() {
+        return this.allocated.getPercentile(50);
+    }
+
+    @Override
+    public long getAllocatedBytesPerRunP99() {
+        return this.allocated.getPercentile(99);
+    }
+
+    @Override
+    public int getCachedScripts() {
+        return this.cache.size();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return this.cache.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return this.cache.getMisses();
+    }
+
+    @Override
+    public String[] getSlowestScripts() {
+        return this.scripts.values().stream()
+                .sorted(Comparator.comparingDouble(Script::mean).reversed())
+                .limit(this.slowest)
+                .map(Script::toString)
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public void reset() {
+        this.loaded.reset();
+        this.parseFailures.reset();
+        this.lexLatency.reset();
+        this.parseLatency.reset();
+        this.runs.reset();
+        this.runFailures.reset();
+        this.statements.reset();
+        this.runLatency.reset();
+        this.allocated.reset();
+        this.scripts.clear();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static boolean allocationsSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return false;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)THREADS;
+        return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * The run latencies of one script
+     */
+    private static class Script {
+
+        private final String path;
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder time = new LongAdder();
+        private final LongAccumulator slowest = new LongAccumulator(Math::max, 0);
+
+        private Script(String path) {
+            this.path = path;
+        }
+
+        private void ran(long time) {
+            this.runs.increment();
+            this.time.add(time);
+            this.slowest.accumulate(time);
+        }
+
+        private double mean() {
+            long runs = this.runs.sum();
+            return runs == 0 ? 0 : (double)this.time.sum() / runs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s - %d runs, mean %.3f ms, max %.3f ms", this.path, this.runs.sum(), millis((long)this.mean()), millis(this.slowest.get()));
+        }
+
+    }
+
+}
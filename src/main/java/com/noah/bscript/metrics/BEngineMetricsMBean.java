@@ -0,0 +1,41 @@
+package com.noah.bscript.metrics;
+
+/**
+ * The JMX view of the {@link BEngineMetrics} of an engine. Latencies are in
+ * milliseconds, allocations in bytes.
+ */
+public interface BEngineMetricsMBean {
+
+    long getScriptsLoaded();
+    long getParseFailures();
+
+    double getLexLatencyP50();
+    double getLexLatencyP99();
+    double getParseLatencyP50();
+    double getParseLatencyP99();
+
+    long getRuns();
+    long getRunFailures();
+    double getRunLatencyP50();
+    double getRunLatencyP99();
+
+    /**
+     * Only interpreted runs count their statements
+     */
+    long getStatementsExecuted();
+
+    long getAllocatedBytesPerRunP50();
+    long getAllocatedBytesPerRunP99();
+
+    int getCachedScripts();
+    long getCacheHits();
+    long getCacheMisses();
+
+    /**
+     * @return the scripts with the highest mean run latency, the slowest first
+     */
+    String[] getSlowestScripts();
+
+    void reset();
+
+}
@@ -0,0 +1,72 @@
+package com.noah.bscript.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values that many threads can record into
+ * without contending. Values are counted in buckets that are powers of two
+ * split into 8 linear steps, so percentiles are accurate to within 12.5%.
+ */
+public class BHistogram {
+
+    private static final int STEP_BITS = 3;
+    private static final int STEPS = 1 << STEP_BITS;
+
+    private final LongAdder[] buckets = new LongAdder[(64 - STEP_BITS) * STEPS + STEPS];
+
+    public BHistogram() {
+        for (int i = 0; i < this.buckets.length; i++) this.buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param value the value to count, negative values count as 0
+     */
+    public void record(long value) {
+        this.buckets[bucket(Math.max(value, 0))].increment();
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : this.buckets) count += bucket.sum();
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return the highest value of the bucket the percentile falls into, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[this.buckets.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) total += counts[i] = this.buckets[i].sum();
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return highest(i);
+        }
+        return highest(counts.length - 1);
+    }
+
+    public void reset() {
+        for (LongAdder bucket : this.buckets) bucket.reset();
+    }
+
+    private static int bucket(long value) {
+        if (value < STEPS) return (int)value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - STEP_BITS;
+        return (shift + 1) * STEPS + (int)((value >>> shift) & (STEPS - 1));
+    }
+
+    private static long highest(int bucket) {
+        if (bucket < STEPS) return bucket;
+
+        int shift = bucket / STEPS - 1;
+        long step = bucket % STEPS;
+        return ((STEPS + step + 1) << shift) - 1;
+    }
+
+}
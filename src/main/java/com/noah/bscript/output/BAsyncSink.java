@@ -0,0 +1,149 @@
+package com.noah.bscript.output;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands printed lines to a background thread through a bounded ring buffer,
+ * so runs never wait on the target unless the buffer is full. The thread
+ * writes the lines to the target sink in batches. One async sink can be
+ * shared by many runs at once, lines of different runs are not interleaved
+ * within a line but may be interleaved with each other.
+ * <p>
+ * A target that throws does not stop the background thread, the lines of
+ * the batch it did not take are dropped and counted instead.
+ */
+public class BAsyncSink implements BOutputSink, AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final BOutputSink target;
+    private final BlockingQueue<String> buffer;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private long queued;
+    private long written;
+    private long dropped;
+
+    public BAsyncSink(BOutputSink target) {
+        this(target, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param target the sink lines are written to, only ever used by the background thread
+     * @param capacity the amount of lines that can wait to be written
+     */
+    public BAsyncSink(BOutputSink target, int capacity) {
+        this.target = target;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drain, "bscript-output");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @throws IllegalStateException if the sink is closed or its background thread died
+     */
+    @Override
+    public void print(Object value) {
+        this.checkWriting();
+
+        synchronized (this) {
+            this.queued++;
+        }
+
+        String line = String.valueOf(value);
+        try {
+            // waits in steps, so a writer that dies while the buffer is full does not block runs forever
+            while (!this.buffer.offer(line, 100, TimeUnit.MILLISECONDS)) {
+                if (!this.writer.isAlive()) {
+                    this.written(1);
+                    this.checkWriting();
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            this.written(1);
+        }
+    }
+
+    /**
+     * @return the amount of lines that were dropped because the target threw
+     */
+    public synchronized long getDropped() {
+        return this.dropped;
+    }
+
+    /**
+     * Wait until every line printed so far was written to the target
+     */
+    @Override
+    public synchronized void flush() {
+        boolean interrupted = false;
+        while (this.written < this.queued && this.writer.isAlive()) {
+            try {
+                this.wait();
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Write out what is left and stop the background thread
+     */
+    @Override
+    public void close() {
+        this.flush();
+        this.closed = true;
+        this.writer.interrupt();
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>();
+        while (!this.closed) {
+            try {
+                String line = this.buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (line == null) continue;
+
+                batch.add(line);
+                this.buffer.drainTo(batch);
+            } catch (InterruptedException exception) {
+                if (this.closed) return;
+                continue;
+            }
+
+            int printed = 0;
+            try {
+                for (String line : batch) {
+                    this.target.print(line);
+                    printed++;
+                }
+                this.target.flush();
+            } catch (RuntimeException exception) {
+                synchronized (this) {
+                    this.dropped += batch.size() - printed;
+                }
+            } finally {
+                this.written(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void checkWriting() {
+        if (this.closed) throw new IllegalStateException("Output sink is closed.");
+        if (!this.writer.isAlive()) throw new IllegalStateException("Output sink stopped writing.");
+    }
+
+    private synchronized void written(int lines) {
+        this.written += lines;
+        this.notifyAll();
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.noah.bscript.output;
+
+import com.noah.bscript.exceptions.BScriptException;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Collects printed lines and writes them to the target in batches, so a run
+ * takes the lock of the target once per batch instead of once per line.
+ * A sink belongs to one run at a time.
+ */
+public class BBufferedSink implements BOutputSink {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final Appendable target;
+    private final int capacity;
+    private final StringBuilder buffer;
+
+    public BBufferedSink(Appendable target) {
+        this(target, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param target where the lines are written to, such as a {@link java.io.Writer} or {@link java.io.PrintStream}
+     * @param capacity the amount of characters that are buffered before they are written out
+     */
+    public BBufferedSink(Appendable target, int capacity) {
+        this.target = target;
+        this.capacity = capacity;
+        this.buffer = new StringBuilder(capacity + 64);
+    }
+
+    @Override
+    public void print(Object value) {
+        this.buffer.append(value).append(System.lineSeparator());
+        if (this.buffer.length() >= this.capacity) this.write();
+    }
+
+    @Override
+    public void flush() {
+        this.write();
+        try {
+            if (this.target instanceof Flushable) ((Flushable)this.target).flush();
+        } catch (IOException exception) {
+            throw new BScriptException("Could not flush output: " + exception.getMessage());
+        }
+    }
+
+    private void write() {
+        if (this.buffer.length() == 0) return;
+
+        try {
+            this.target.append(this.buffer);
+        } catch (IOException exception) {
+            throw new BScriptException("Could not write output: " + exception.getMessage());
+        }
+        this.buffer.setLength(0);
+    }
+
+}
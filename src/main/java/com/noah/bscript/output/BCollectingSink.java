@@ -0,0 +1,37 @@
+package com.noah.bscript.output;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps every printed line in memory
+ */
+public class BCollectingSink implements BOutputSink {
+
+    private final List<String> lines = new ArrayList<>();
+
+    @Override
+    public void print(Object value) {
+        this.lines.add(String.valueOf(value));
+    }
+
+    public List<String> getLines() {
+        return Collections.unmodifiableList(this.lines);
+    }
+
+    public void clear() {
+        this.lines.clear();
+    }
+
+    /**
+     * @return the printed lines, each followed by a line feed
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String line : this.lines) builder.append(line).append('\n');
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.noah.bscript.output;
+
+/**
+ * Where the print statements of a run write to. Sinks may hold on to what
+ * is printed until they are flushed, which happens at least once at the end
+ * of every run.
+ */
+public interface BOutputSink {
+
+    /**
+     * A sink that drops everything
+     */
+    BOutputSink DISCARD = value -> {};
+
+    /**
+     * Print a value on a line of its own
+     *
+     * @param value the value, which may be null
+     */
+    void print(Object value);
+
+    /**
+     * Write out anything that is still buffered
+     */
+    default void flush() {}
+
+}
@@ -0,0 +1,26 @@
+package com.noah.bscript.output;
+
+import java.io.PrintStream;
+
+/**
+ * Prints every value straight to a {@link PrintStream}, one line at a time
+ */
+public class BPrintStreamSink implements BOutputSink {
+
+    private final PrintStream out;
+
+    public BPrintStreamSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void print(Object value) {
+        this.out.println(value);
+    }
+
+    @Override
+    public void flush() {
+        this.out.flush();
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.noah.bscript.profiler;
+
+import com.noah.bscript.lang.BStatement;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+
+/**
+ * What a {@link BProfiler} measured for one source line or statement
+ */
+@AllArgsConstructor
+@Getter
+public class BProfileEntry {
+
+    private File file;
+    private int line;
+
+    /**
+     * The statement, or null if the entry covers every statement of the line
+     */
+    private BStatement statement;
+
+    /**
+     * How often the statements were executed, always 0 when sampling
+     */
+    private long count;
+
+    /**
+     * The time spent in the statements themselves in nanoseconds, excluding
+     * the statements nested in them. Sampling profilers estimate it from the
+     * samples.
+     */
+    private long time;
+
+    /**
+     * How often the statements were the innermost running statement when a
+     * sample was taken, always 0 when instrumenting
+     */
+    private long samples;
+
+    @Override
+    public String toString() {
+        String name = this.statement == null ? "" : " " + BProfiler.name(this.statement);
+        return String.format("%s:%d%s - %d runs, %.3f ms", this.file.getPath(), this.line, name, this.count, this.time / 1e6);
+    }
+
+}
@@ -0,0 +1,368 @@
+package com.noah.bscript.profiler;
+
+import com.noah.bscript.lang.BStatement;
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Attributes execution counts and time to the statements and source lines
+ * of the runs it is attached to. Statements are kept in a tree by the
+ * statements they are nested in, which is what the collapsed stack output
+ * is made of.
+ *
+ * <p>An instrumenting profiler counts every statement and reads the clock
+ * around it, which makes its counts and times exact but slows runs down. A
+ * sampling profiler only has runs publish the statements they are in, and
+ * has a background thread look at them every interval and build the tree,
+ * so its times are estimates and it does not count statements.
+ *
+ * <p>One profiler can be attached to many runs at once, each run records
+ * on its own and is merged into the profile when it ends.
+ */
+public class BProfiler implements AutoCloseable {
+
+    public enum Mode {
+        INSTRUMENTING,
+        SAMPLING
+    }
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(1);
+
+    private static final VarHandle STACK;
+    private static final VarHandle DEPTH;
+    private static final VarHandle STATEMENT = MethodHandles.arrayElementVarHandle(BStatement[].class);
+
+    static {
+        try {
+            STACK = MethodHandles.lookup().findVarHandle(Recorder.class, "stack", BStatement[].class);
+            DEPTH = MethodHandles.lookup().findVarHandle(Recorder.class, "depth", int.class);
+        } catch (ReflectiveOperationException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
+
+    @Getter private final Mode mode;
+    private final long interval;
+
+    private final Node root = new Node(null, null);
+    private final Set<Recorder> recording = new HashSet<>();
+    private Thread sampler;
+    private boolean closed;
+
+    public BProfiler(Mode mode) {
+        this(mode, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param mode how to measure
+     * @param interval the time between samples, only used when sampling
+     */
+    public BProfiler(Mode mode, Duration interval) {
+        this.mode = mode;
+        this.interval = interval.toNanos();
+    }
+
+    /**
+     * Start recording a run
+     *
+     * @param file the {@link File} of the program that is run
+     * @return the {@link Recorder} the run reports its statements to
+     */
+    public synchronized Recorder start(File file) {
+        if (this.closed) throw new IllegalStateException("Profiler is closed.");
+
+        Recorder recorder = new Recorder(file);
+        if (this.mode == Mode.SAMPLING) {
+            this.recording.add(recorder);
+            if (this.sampler == null) {
+                this.sampler = new Thread(this::sample, "bscript-profiler");
+                this.sampler.setDaemon(true);
+                this.sampler.start();
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * @return the profile of every source line, the most expensive first
+     */
+    public List<BProfileEntry> getLines() {
+        Map<File, Map<Integer, long[]>> lines = new LinkedHashMap<>();
+        synchronized (this) {
+            this.visit(this.root, null, (file, node) -> {
+                long[] totals = lines.computeIfAbsent(file, key -> new LinkedHashMap<>()).computeIfAbsent(node.statement.getLine(), key -> new long[3]);
+                totals[0] += node.count;
+                totals[1] += this.time(node);
+                totals[2] += node.samples;
+            });
+        }
+
+        List<BProfileEntry> entries = new ArrayList<>();
+        lines.forEach((file, totals) -> totals.forEach((line, values) -> entries.add(new BProfileEntry(file, line, null, values[0], values[1], values[2]))));
+        entries.sort(Comparator.comparingLong(BProfileEntry::getTime).reversed());
+        return entries;
+    }
+
+    /**
+     * @return the profile of every statement, the most expensive first
+     */
+    public List<BProfileEntry> getStatements() {
+        Map<BStatement, BProfileEntry> statements = new IdentityHashMap<>();
+        synchronized (this) {
+            this.visit(this.root, null, (file, node) -> statements.merge(node.statement,
+                    new BProfileEntry(file, node.statement.getLine(), node.statement, node.count, this.time(node), node.samples),
+                    (a, b) -> new BProfileEntry(file, a.getLine(), a.getStatement(), a.getCount() + b.getCount(), a.getTime() + b.getTime(), a.getSamples() + b.getSamples())));
+        }
+
+        List<BProfileEntry> entries = new ArrayList<>(statements.values());
+        entries.sort(Comparator.comparingLong(BProfileEntry::getTime).reversed());
+        return entries;
+    }
+
+    /**
+     * Write the profile in the collapsed stack format flame graph tools read:
+     * one line per stack of nested statements, with the frames separated by
+     * semicolons and followed by the self time in nanoseconds, or by the
+     * amount of samples when sampling.
+     *
+     * @param out where to write to
+     */
+    public synchronized void writeCollapsed(Appendable out) throws IOException {
+        for (Node file : this.root.children.values()) this.writeCollapsed(out, file, frame(file.file.getPath()));
+    }
+
+    /**
+     * @return the profile in the collapsed stack format
+     * @see #writeCollapsed(Appendable)
+     */
+    public String toCollapsed() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            this.writeCollapsed(builder);
+        } catch (IOException exception) {
+            throw new IllegalStateException(exception);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Forget everything that was recorded so far
+     */
+    public synchronized void reset() {
+        this.root.children.clear();
+    }
+
+    /**
+     * Stop the sampling thread, runs that are still recording are not merged
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.recording.clear();
+        if (this.sampler != null) this.sampler.interrupt();
+    }
+
+    static String name(BStatement statement) {
+        return statement.getClass().getSimpleName().toLowerCase() + ":" + statement.getLine();
+    }
+
+    private void writeCollapsed(Appendable out, Node node, String stack) throws IOException {
+        long value = this.mode == Mode.SAMPLING ? node.samples : node.time;
+        if (value > 0) out.append(stack).append(' ').append(Long.toString(value)).append('\n');
+
+        for (Node child : node.children.values()) this.writeCollapsed(out, child, stack + ";" + frame(name(child.statement)));
+    }
+
+    private long time(Node node) {
+        return this.mode == Mode.SAMPLING ? node.samples * this.interval : node.time;
+    }
+
+    private void visit(Node node, File file, NodeVisitor visitor) {
+        for (Node child : node.children.values()) {
+            if (child.statement == null) this.visit(child, child.file, visitor);
+            else {
+                visitor.visit(file, child);
+                this.visit(child, file, visitor);
+            }
+        }
+    }
+
+    private synchronized void finish(Recorder recorder) {
+        if (this.closed) return;
+
+        this.recording.remove(recorder);
+        Node file = this.root.children.computeIfAbsent(recorder.file, key -> new Node(null, recorder.file));
+        file.merge(recorder.root);
+    }
+
+    private void sample() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this.interval);
+
+            synchronized (this) {
+                if (this.closed) return;
+                for (Recorder recorder : this.recording) recorder.sample();
+            }
+        }
+    }
+
+    private static String frame(String name) {
+        return name.replace(';', '_').replace(' ', '_');
+    }
+
+    private interface NodeVisitor {
+        void visit(File file, Node node);
+    }
+
+    /**
+     * A statement within the statements it is nested in
+     */
+    private static final class Node {
+
+        private final BStatement statement;
+        private final File file;
+        private final Node parent;
+        private final Map<Object, Node> children = new LinkedHashMap<>();
+
+        private long count;
+        private long time;
+        private long samples; // only touched while holding the lock of the profiler
+
+        private Node(BStatement statement, File file) {
+            this(statement, file, null);
+        }
+
+        private Node(BStatement statement, File file, Node parent) {
+            this.statement = statement;
+            this.file = file;
+            this.parent = parent;
+        }
+
+        private Node child(BStatement statement) {
+            Node child = this.children.get(statement);
+            if (child == null) {
+                child = new Node(statement, null, this);
+                this.children.put(statement, child);
+            }
+            return child;
+        }
+
+        private void merge(Node other) {
+            this.count += other.count;
+            this.time += other.time;
+            this.samples += other.samples;
+            for (Node child : other.children.values()) this.child(child.statement).merge(child);
+        }
+
+    }
+
+    /**
+     * Records the statements of a single run, it is only ever used by the
+     * thread that runs the program. When sampling, the run only publishes the
+     * statements it is in, and the tree is built by the sampling thread.
+     */
+    public final class Recorder {
+
+        private final File file;
+        private final Node root = new Node(null, null);
+        private final boolean timed = BProfiler.this.mode == Mode.INSTRUMENTING;
+
+        // when instrumenting, the innermost running statement
+        private Node current = this.root;
+        private long[] started = new long[32];
+        private long[] nested = new long[32];
+
+        // when sampling, the running statements, outermost first, read by the sampling thread through STACK and DEPTH
+        private BStatement[] stack = new BStatement[32];
+
+        // the amount of running statements
+        private int depth;
+
+        private Recorder(File file) {
+            this.file = file;
+        }
+
+        /**
+         * A statement starts running
+         */
+        public void enter(BStatement statement) {
+            if (!this.timed) {
+                BStatement[] stack = this.stack;
+                if (this.depth == stack.length) STACK.setOpaque(this, stack = Arrays.copyOf(stack, this.depth * 2));
+                STATEMENT.setOpaque(stack, this.depth, statement);
+                DEPTH.setOpaque(this, this.depth + 1);
+                return;
+            }
+
+            Node node = this.current.child(statement);
+            node.count++;
+            this.current = node;
+
+            if (this.depth == this.started.length) {
+                this.started = Arrays.copyOf(this.started, this.depth * 2);
+                this.nested = Arrays.copyOf(this.nested, this.depth * 2);
+            }
+            this.nested[this.depth] = 0;
+            this.started[this.depth++] = System.nanoTime();
+        }
+
+        /**
+         * The statement that started last is done, whether it completed or not
+         */
+        public void exit() {
+            if (!this.timed) {
+                DEPTH.setOpaque(this, this.depth - 1);
+                return;
+            }
+
+            Node node = this.current;
+            long elapsed = System.nanoTime() - this.started[--this.depth];
+            node.time += elapsed - this.nested[this.depth];
+            if (this.depth > 0) this.nested[this.depth - 1] += elapsed;
+            this.current = node.parent;
+        }
+
+        /**
+         * The run is over, add what it recorded to the profile
+         */
+        public void finish() {
+            BProfiler.this.finish(this);
+        }
+
+        /**
+         * Count a sample for the innermost running statement, called by the
+         * sampling thread while holding the lock of the profiler. The run does
+         * not wait for it, so the stack can be read while it changes, which
+         * only makes a sample land on a statement the run just left or entered.
+         */
+        private void sample() {
+            BStatement[] stack = (BStatement[])STACK.getOpaque(this);
+            int depth = Math.min((int)DEPTH.getOpaque(this), stack.length);
+
+            Node node = this.root;
+            for (int i = 0; i < depth; i++) {
+                BStatement statement = (BStatement)STATEMENT.getOpaque(stack, i);
+                if (statement == null) break;
+                node = node.child(statement);
+            }
+            if (node != this.root) node.samples++;
+        }
+
+    }
+
+}
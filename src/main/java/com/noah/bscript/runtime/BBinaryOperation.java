@@ -0,0 +1,310 @@
+package com.noah.bscript.runtime;
+
+import com.noah.bscript.lang.BExpression;
+
+/**
+ * The executable form of a {@link BExpression.Binary}. Every node starts out
+ * uninitialized and rewrites itself on its first execution into an operation
+ * specialized for its operator and the operand types it saw, so the steady
+ * state is a single type guard plus the operation. When a guard fails the
+ * node falls back to the generic operation for good.
+ */
+public abstract class BBinaryOperation {
+
+    public static final BBinaryOperation UNINITIALIZED = new Uninitialized();
+
+    static final BBinaryOperation SUBTRACT = new Subtract();
+    static final BBinaryOperation DIVIDE = new Divide();
+    static final BBinaryOperation MULTIPLY = new Multiply();
+    static final BBinaryOperation GREATER = new Greater();
+    static final BBinaryOperation GREATER_EQUAL = new GreaterEqual();
+    static final BBinaryOperation LESS = new Less();
+    static final BBinaryOperation LESS_EQUAL = new LessEqual();
+    static final BBinaryOperation EQUAL = new Equal();
+    static final BBinaryOperation NOT_EQUAL = new NotEqual();
+
+    static final BBinaryOperation ADD_NUMBERS = new AddNumbers();
+    static final BBinaryOperation ADD_STRINGS = new AddStrings();
+    static final BBinaryOperation ADD_STRING_NUMBER = new AddStringNumber();
+    static final BBinaryOperation ADD_NUMBER_STRING = new AddNumberString();
+    static final BBinaryOperation ADD_GENERIC = new AddGeneric();
+
+    abstract Object execute(BInterpreter interpreter, BExpression.Binary node);
+
+    /**
+     * Execute the operation in a context that needs a number
+     *
+     * @throws BInterpreter.NotANumber if the operation did not produce a number
+     */
+    double executeNumber(BInterpreter interpreter, BExpression.Binary node) {
+        Object value = this.execute(interpreter, node);
+        if (value instanceof Double) return (double)value;
+        throw new BInterpreter.NotANumber(value);
+    }
+
+    /**
+     * Execute the operation in a context that only needs its truthiness
+     */
+    boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+        return BOperations.isTruthy(this.execute(interpreter, node));
+    }
+
+    ///////////////////////////////////////////////////
+    // UNINITIALIZED
+    ///////////////////////////////////////////////////
+
+    private static class Uninitialized extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            switch (node.getOperator().getType()) {
+                case MINUS: return this.rewrite(node, SUBTRACT).execute(interpreter, node);
+                case SLASH: return this.rewrite(node, DIVIDE).execute(interpreter, node);
+                case STAR: return this.rewrite(node, MULTIPLY).execute(interpreter, node);
+                case GREATER: return this.rewrite(node, GREATER).execute(interpreter, node);
+                case GREATER_EQUAL: return this.rewrite(node, GREATER_EQUAL).execute(interpreter, node);
+                case LESS: return this.rewrite(node, LESS).execute(interpreter, node);
+                case LESS_EQUAL: return this.rewrite(node, LESS_EQUAL).execute(interpreter, node);
+                case EQUAL_EQUAL: return this.rewrite(node, EQUAL).execute(interpreter, node);
+                case NOT_EQUAL: return this.rewrite(node, NOT_EQUAL).execute(interpreter, node);
+                case PLUS:
+                    // the operands have to be evaluated to see their types, so finish the job here
+                    Object left = interpreter.evaluate(node.getLeft());
+                    Object right = interpreter.evaluate(node.getRight());
+                    this.rewrite(node, this.add(left, right));
+                    return BOperations.add(node.getOperator(), left, right);
+            }
+
+            throw new IllegalStateException("Not a binary operator: " + node.getOperator().getType());
+        }
+
+        private BBinaryOperation add(Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return ADD_NUMBERS;
+            if (BOperations.isString(left) && BOperations.isString(right)) return ADD_STRINGS;
+            if (BOperations.isString(left) && right instanceof Double) return ADD_STRING_NUMBER;
+            if (left instanceof Double && BOperations.isString(right)) return ADD_NUMBER_STRING;
+            return ADD_GENERIC;
+        }
+
+        private BBinaryOperation rewrite(BExpression.Binary node, BBinaryOperation operation) {
+            node.setOperation(operation);
+            return operation;
+        }
+
+    }
+
+    ///////////////////////////////////////////////////
+    // NUMBERS
+    ///////////////////////////////////////////////////
+
+    private static class Subtract extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return BOperations.valueOf(this.executeNumber(interpreter, node));
+        }
+
+        @Override
+        double executeNumber(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) - interpreter.rightOperand(node);
+        }
+
+    }
+
+    private static class Divide extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return BOperations.valueOf(this.executeNumber(interpreter, node));
+        }
+
+        @Override
+        double executeNumber(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) / interpreter.rightOperand(node);
+        }
+
+    }
+
+    private static class Multiply extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return BOperations.valueOf(this.executeNumber(interpreter, node));
+        }
+
+        @Override
+        double executeNumber(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) * interpreter.rightOperand(node);
+        }
+
+    }
+
+    private static class Greater extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return this.executeCondition(interpreter, node);
+        }
+
+        @Override
+        boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) > interpreter.rightOperand(node);
+        }
+
+    }
+
+    private static class GreaterEqual extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return this.executeCondition(interpreter, node);
+        }
+
+        @Override
+        boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) >= interpreter.rightOperand(node);
+        }
+
+    }
+
+    private static class Less extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return this.executeCondition(interpreter, node);
+        }
+
+        @Override
+        boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) < interpreter.rightOperand(node);
+        }
+
+    }
+
+    private static class LessEqual extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return this.executeCondition(interpreter, node);
+        }
+
+        @Override
+        boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.leftOperand(node) <= interpreter.rightOperand(node);
+        }
+
+    }
+
+    ///////////////////////////////////////////////////
+    // EQUALITY
+    ///////////////////////////////////////////////////
+
+    private static class Equal extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return this.executeCondition(interpreter, node);
+        }
+
+        @Override
+        boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+            Object left = interpreter.evaluate(node.getLeft());
+            return BOperations.isEqual(left, interpreter.evaluate(node.getRight()));
+        }
+
+    }
+
+    private static class NotEqual extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            return this.executeCondition(interpreter, node);
+        }
+
+        @Override
+        boolean executeCondition(BInterpreter interpreter, BExpression.Binary node) {
+            Object left = interpreter.evaluate(node.getLeft());
+            return !BOperations.isEqual(left, interpreter.evaluate(node.getRight()));
+        }
+
+    }
+
+    ///////////////////////////////////////////////////
+    // ADDITION
+    ///////////////////////////////////////////////////
+
+    private static class AddNumbers extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            try {
+                return BOperations.valueOf(interpreter.add(node));
+            } catch (BInterpreter.NotANumber exception) {
+                node.setOperation(ADD_GENERIC);
+                return exception.getValue();
+            }
+        }
+
+        @Override
+        double executeNumber(BInterpreter interpreter, BExpression.Binary node) {
+            return interpreter.add(node);
+        }
+
+    }
+
+    private static class AddStrings extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            Object left = interpreter.evaluate(node.getLeft());
+            Object right = interpreter.evaluate(node.getRight());
+            if (BOperations.isString(left) && BOperations.isString(right)) return BString.concat(left, right);
+            return deoptimize(node, left, right);
+        }
+
+    }
+
+    private static class AddStringNumber extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            Object left = interpreter.evaluate(node.getLeft());
+            Object right = interpreter.evaluate(node.getRight());
+            if (BOperations.isString(left) && right instanceof Double) return BString.concat(left, right);
+            return deoptimize(node, left, right);
+        }
+
+    }
+
+    private static class AddNumberString extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            Object left = interpreter.evaluate(node.getLeft());
+            Object right = interpreter.evaluate(node.getRight());
+            if (left instanceof Double && BOperations.isString(right)) return BString.concat(left, right);
+            return deoptimize(node, left, right);
+        }
+
+    }
+
+    private static class AddGeneric extends BBinaryOperation {
+
+        @Override
+        Object execute(BInterpreter interpreter, BExpression.Binary node) {
+            Object left = interpreter.evaluate(node.getLeft());
+            Object right = interpreter.evaluate(node.getRight());
+            return BOperations.add(node.getOperator(), left, right);
+        }
+
+    }
+
+    /**
+     * The operand types changed, so give up on specializing this node
+     */
+    private static Object deoptimize(BExpression.Binary node, Object left, Object right) {
+        node.setOperation(ADD_GENERIC);
+        return BOperations.add(node.getOperator(), left, right);
+    }
+
+}
@@ -1,27 +1,47 @@
 package com.noah.bscript.runtime;
 
 import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.lang.BSymbolTable;
 import com.noah.bscript.lang.BToken;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+/**
+ * Variables keyed by the symbol id of their name. The ids are dense, so they
+ * are used as their own hash in a small open addressed table.
+ */
 public class BEnvironment {
 
     private BEnvironment enclosing = null;
-    private final Map<String, Object> values = new HashMap<>();
+
+    private int[] symbols = empty(16);
+    private Object[] values = new Object[16];
+    private int size;
 
     public BEnvironment() {}
     public BEnvironment(BEnvironment enclosing) { this.enclosing = enclosing; }
 
     public void define(String name, Object value) {
-        this.values.put(name, value);
+        this.define(BSymbolTable.intern(name), value);
+    }
+
+    public void define(BToken name, Object value) {
+        this.define(name.getSymbol(), value);
+    }
+
+    public void define(int symbol, Object value) {
+        int index = this.index(symbol);
+        this.values[index] = value;
+        if (this.symbols[index] < 0) {
+            this.symbols[index] = symbol;
+            if (++this.size * 2 > this.symbols.length) this.grow();
+        }
     }
 
     public void redefine(BToken name, Object value) {
-        String lexeme = name.getLexeme();
-        if (this.values.containsKey(lexeme)) {
-            this.values.put(lexeme, value);
+        int index = this.index(name.getSymbol());
+        if (this.symbols[index] >= 0) {
+            this.values[index] = value;
             return;
         }
 
@@ -30,14 +50,65 @@ public class BEnvironment {
             return;
         }
 
-        throw new BRuntimeException(name, "Invalid assignment: '" + lexeme + "'.");
+        throw new BRuntimeException(name, "Invalid assignment: '" + name.getLexeme() + "'.");
     }
 
     public Object get(BToken name) {
-        String lexeme = name.getLexeme();
-        if (this.values.containsKey(lexeme)) return this.values.get(lexeme);
+        int index = this.index(name.getSymbol());
+        if (this.symbols[index] >= 0) return this.values[index];
         if (this.enclosing != null) return this.enclosing.get(name);
-        throw new BRuntimeException(name, "Undefined variable: '" + lexeme + "'.");
+        throw new BRuntimeException(name, "Undefined variable: '" + name.getLexeme() + "'.");
+    }
+
+    /**
+     * Look up a variable from Java
+     *
+     * @param name the name of the variable
+     * @return the value of the variable, or null if it is not defined
+     */
+    public Object get(String name) {
+        int symbol = BSymbolTable.lookup(name);
+        return symbol < 0 ? null : this.get(symbol);
+    }
+
+    private Object get(int symbol) {
+        int index = this.index(symbol);
+        if (this.symbols[index] >= 0) return this.values[index];
+        if (this.enclosing != null) return this.enclosing.get(symbol);
+        return null;
+    }
+
+    /**
+     * @param symbol the symbol id of a name
+     * @return the index the name is at, or the empty index it would go in
+     */
+    private int index(int symbol) {
+        int mask = this.symbols.length - 1;
+        int hash = symbol * 0x9E3779B9;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (this.symbols[index] >= 0 && this.symbols[index] != symbol) index = (index + 1) & mask;
+        return index;
+    }
+
+    private void grow() {
+        int[] symbols = this.symbols;
+        Object[] values = this.values;
+
+        this.symbols = empty(symbols.length * 2);
+        this.values = new Object[symbols.length * 2];
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i] < 0) continue;
+
+            int index = this.index(symbols[i]);
+            this.symbols[index] = symbols[i];
+            this.values[index] = values[i];
+        }
+    }
+
+    private static int[] empty(int length) {
+        int[] symbols = new int[length];
+        Arrays.fill(symbols, -1);
+        return symbols;
     }
 
 }
@@ -0,0 +1,33 @@
+package com.noah.bscript.runtime;
+
+public class BFrame {
+
+    private final Object[] slots;
+    private final BFrame enclosing;
+
+    public BFrame(int size, BFrame enclosing) {
+        this.slots = new Object[size];
+        this.enclosing = enclosing;
+    }
+
+    public Object get(int slot) {
+        return this.slots[slot];
+    }
+
+    public void set(int slot, Object value) {
+        this.slots[slot] = value;
+    }
+
+    /**
+     * Walk up the frame chain
+     *
+     * @param depth the amount of frames to walk up
+     * @return the frame at that depth
+     */
+    public BFrame ancestor(int depth) {
+        BFrame frame = this;
+        for (int i = 0; i < depth; i++) frame = frame.enclosing;
+        return frame;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.noah.bscript.runtime;
+
+import com.noah.bscript.lang.BStatement;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A function declared by a script, together with the frame it was declared
+ * in. Calls get a fresh {@link BFrame} sized by the resolver, with the
+ * arguments in the first slots.
+ */
+@AllArgsConstructor
+@Getter
+public class BFunction {
+
+    private final BStatement.Function declaration;
+    private final BFrame closure;
+
+    public int arity() {
+        return this.declaration.getParameters().size();
+    }
+
+    /**
+     * @param arguments the evaluated arguments, as many as the function takes
+     * @return the frame a call runs in
+     */
+    BFrame frame(Object[] arguments) {
+        BFrame frame = new BFrame(this.declaration.getSlotCount(), this.closure);
+        for (int i = 0; i < arguments.length; i++) frame.set(i, arguments[i]);
+        return frame;
+    }
+
+    @Override
+    public String toString() {
+        return "<def " + this.declaration.getName().getLexeme() + ">";
+    }
+
+}
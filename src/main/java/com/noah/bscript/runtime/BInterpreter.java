@@ -1,32 +1,85 @@
 package com.noah.bscript.runtime;
 
-import com.noah.bscript.BScript;
+import com.noah.bscript.BContext;
+import com.noah.bscript.exceptions.BOutOfFuelException;
 import com.noah.bscript.exceptions.BRuntimeException;
 import com.noah.bscript.lang.BExpression;
 import com.noah.bscript.lang.BStatement;
 import com.noah.bscript.lang.BToken;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.profiler.BProfiler;
 import lombok.Getter;
 
 import java.util.List;
 
 public class BInterpreter implements BExpression.Visitor<Object>, BStatement.Visitor<Void> {
 
-    private List<BStatement> statements;
-    private BScript script;
-
-    @Getter private BEnvironment environment;
+    /**
+     * The deepest calls of script functions may nest on every backend, tail
+     * calls do not count. It is low enough that the interpreter reaches it
+     * before the stack of a thread with the default size overflows, so every
+     * backend fails at the same call.
+     */
+    public static final int MAX_FRAMES = 512;
+
+    private final List<BStatement> statements;
+
+    @Getter private final BEnvironment globals;
+    private final BContext context;
+    private final BOutputSink out;
+    private final BProfiler.Recorder recorder;
+    private BFrame frame;
+    private int frames;
+    private long fuel;
+
+    // a return statement ran, the statements around it stop until the call picks up the value
+    private boolean returning;
+    private Object returned;
+
+    // the call a return statement left for its caller to make instead, see call
+    private BFunction tailFunction;
+    private Object[] tailArguments;
+    private BToken tailParen;
+
+    /**
+     * The amount of statements executed so far
+     */
+    @Getter private long executed;
+
+    /**
+     * The statements are only read, so one list can be interpreted by many
+     * interpreters at once. Everything that changes during a run lives in the
+     * interpreter and the {@link BContext} it was given.
+     *
+     * @param context the {@link BContext} of the run
+     * @param statements the resolved statements
+     */
+    public BInterpreter(BContext context, List<BStatement> statements) {
+        this(context, statements, null);
+    }
 
-    public BInterpreter(BScript script, List<BStatement> statements) {
-        this.script = script;
+    /**
+     * @param context the {@link BContext} of the run
+     * @param statements the resolved statements
+     * @param recorder the {@link BProfiler.Recorder} every executed statement is reported to, or null
+     */
+    public BInterpreter(BContext context, List<BStatement> statements, BProfiler.Recorder recorder) {
         this.statements = statements;
-        this.environment = new BEnvironment();
+        this.context = context;
+        this.globals = context.getGlobals();
+        this.out = context.getOut();
+        this.recorder = recorder;
     }
 
+    /**
+     * @throws BRuntimeException if the script fails
+     */
     public void interpret() {
+        this.fuel = this.context.getFuel();
         try {
             for (BStatement statement : this.statements) this.execute(statement);
-        } catch (BRuntimeException exception) {
-            this.script.error(exception.getToken(), exception.getMessage());
+        } finally {
+            if (this.context.isFuelLimited()) this.context.setFuel(Math.max(this.fuel, 0));
         }
     }
 
@@ -36,21 +89,85 @@ public class BInterpreter implements BExpression.Visitor<Object>, BStatement.Vis
 
     @Override
     public Void visitIf(BStatement.If statement) {
-        if (this.isTruthy(this.evaluate(statement.getExpression()))) this.execute(statement.getThenBranch());
+        if (this.evaluateCondition(statement.getExpression())) this.execute(statement.getThenBranch());
         else if (statement.getElseBranch() != null) this.execute(statement.getElseBranch());
         return null;
     }
 
     @Override
     public Void visitWhile(BStatement.While statement) {
-        while (isTruthy(this.evaluate(statement.getCondition())))
-            this.execute(statement.getBody());
+        BFrame body = this.reusableFrame(statement.getBody());
+        while (this.evaluateCondition(statement.getCondition())) {
+            this.burn();
+            this.executeBody(statement.getBody(), body);
+            if (this.returning) break;
+        }
         return null;
     }
 
+    @Override
+    public Void visitFor(BStatement.For statement) {
+        BFrame previous = this.frame;
+        try {
+            this.frame = new BFrame(statement.getSlotCount(), previous);
+            if (statement.getInitializer() != null) this.execute(statement.getInitializer());
+
+            int counter = statement.getCounter();
+            if (counter >= 0 && this.frame.get(counter) instanceof Double) this.count(statement, (double)this.frame.get(counter));
+            else this.loop(statement);
+        } finally {
+            this.frame = previous;
+        }
+        return null;
+    }
+
+    private void loop(BStatement.For statement) {
+        BFrame body = this.reusableFrame(statement.getBody());
+        BExpression increment = statement.getIncrement();
+        while (this.evaluateCondition(statement.getCondition())) {
+            this.burn();
+            this.executeBody(statement.getBody(), body);
+            if (this.returning) break;
+            if (increment != null) this.evaluate(increment);
+        }
+    }
+
+    /**
+     * Run a counting loop with the counter in a local. It is only boxed
+     * into its slot when something else reads it.
+     */
+    private void count(BStatement.For statement, double counter) {
+        BFrame body = this.reusableFrame(statement.getBody());
+        BExpression.Binary condition = (BExpression.Binary)statement.getCondition();
+        BToken.Type comparison = condition.getOperator().getType();
+        double step = statement.getStep();
+        boolean read = statement.isCounterRead();
+        int slot = statement.getCounter();
+
+        for (;;) {
+            double bound = this.rightOperand(condition);
+            boolean running;
+            switch (comparison) {
+                case LESS: running = counter < bound; break;
+                case LESS_EQUAL: running = counter <= bound; break;
+                case GREATER: running = counter > bound; break;
+                default: running = counter >= bound; break;
+            }
+            if (!running) return;
+
+            this.burn();
+            this.executeBody(statement.getBody(), body);
+            if (this.returning) return;
+
+            counter += step;
+            if (read) this.frame.set(slot, BOperations.valueOf(counter));
+        }
+    }
+
     @Override
     public Void visitBlock(BStatement.Block statement) {
-        this.executeBlock(statement.getStatements(), new BEnvironment(this.environment));
+        this.burn();
+        this.executeBlock(statement.getStatements(), new BFrame(statement.getSlotCount(), this.frame));
         return null;
     }
 
@@ -63,7 +180,7 @@ public class BInterpreter implements BExpression.Visitor<Object>, BStatement.Vis
     @Override
     public Void visitPrint(BStatement.Print statement) {
         Object value = this.evaluate(statement.getExpression());
-        System.out.println(value);
+        this.out.print(value);
         return null;
     }
 
@@ -75,7 +192,40 @@ public class BInterpreter implements BExpression.Visitor<Object>, BStatement.Vis
             value = this.evaluate(initializer);
         }
 
-        this.environment.define(statement.getName().getLexeme(), value);
+        if (statement.getSlot() < 0) this.globals.define(statement.getName(), value);
+        else this.frame.set(statement.getSlot(), value);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(BStatement.Function statement) {
+        BFunction function = new BFunction(statement, this.frame);
+        if (statement.getSlot() < 0) this.globals.define(statement.getName(), function);
+        else this.frame.set(statement.getSlot(), function);
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(BStatement.Return statement) {
+        BExpression value = statement.getValue();
+        if (value instanceof BExpression.Call) {
+            BExpression.Call call = (BExpression.Call)value;
+            Object callee = this.evaluate(call.getCallee());
+            Object[] arguments = this.arguments(call);
+
+            if (callee instanceof BFunction) {
+                // a tail call, the caller makes it in place of this one so the stack does not grow
+                this.tailFunction = (BFunction)callee;
+                this.tailArguments = arguments;
+                this.tailParen = call.getParen();
+            } else {
+                this.returned = call.getSite().call(callee, arguments);
+            }
+        } else if (value != null) {
+            this.returned = this.evaluate(value);
+        }
+
+        this.returning = true;
         return null;
     }
 
@@ -86,57 +236,29 @@ public class BInterpreter implements BExpression.Visitor<Object>, BStatement.Vis
     @Override
     public Object visitAssign(BExpression.Assign assign) {
         Object value = this.evaluate(assign.getValue());
-        this.environment.redefine(assign.getName(), value);
+        if (assign.getDepth() < 0) this.globals.redefine(assign.getName(), value);
+        else this.frame.ancestor(assign.getDepth()).set(assign.getSlot(), value);
         return value;
     }
 
+    @Override
+    public Object visitCall(BExpression.Call expression) {
+        Object callee = this.evaluate(expression.getCallee());
+        Object[] arguments = this.arguments(expression);
+
+        if (callee instanceof BFunction) return this.call((BFunction)callee, arguments, expression.getParen());
+        return expression.getSite().call(callee, arguments);
+    }
+
     @Override
     public Object visitLetExpression(BExpression.Let expression) {
-        return this.environment.get(expression.getName());
+        if (expression.getDepth() < 0) return this.globals.get(expression.getName());
+        return this.frame.ancestor(expression.getDepth()).get(expression.getSlot());
     }
 
     @Override
     public Object visitBinary(BExpression.Binary expression) {
-        Object left = this.evaluate(expression.getLeft());
-        Object right = this.evaluate(expression.getRight());
-
-        switch (expression.getOperator().getType()) {
-            case GREATER:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left <= (double)right;
-            case MINUS:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left - (double)right;
-            case SLASH:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left / (double)right;
-            case STAR:
-                this.checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left * (double)right;
-            case NOT_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-            case PLUS:
-                if (left instanceof Double) {
-                    if (right instanceof Double) return (double)left + (double)right;
-                    if (right instanceof String) return (double)left + (String)right;
-                }
-                if (left instanceof String) {
-                    if (right instanceof String) return (String)left + (String)right;
-                    if (right instanceof Double) return (String)left + (double)right;
-                }
-                throw new BRuntimeException(expression.getOperator(), "Operands must be string or number.");
-        }
-
-        return null;
+        return expression.getOperation().execute(this, expression);
     }
 
     @Override
@@ -164,54 +286,249 @@ public class BInterpreter implements BExpression.Visitor<Object>, BStatement.Vis
 
     @Override
     public Object visitUnary(BExpression.Unary expression) {
+        if (expression.getOperator().getType() == BToken.Type.MINUS)
+            return BOperations.valueOf(this.negate(expression));
+
         Object right = this.evaluate(expression.getExpression());
+        return BOperations.unary(expression.getOperator(), right);
+    }
+
+    ///////////////////////////////////////////////////
+    // UNBOXED NUMBERS
+    ///////////////////////////////////////////////////
 
-        switch (expression.getOperator().getType()) {
-            case MINUS: return -(double)right;
-            case NOT: return !this.isTruthy(right);
+    /**
+     * Evaluate an expression as a primitive number. Arithmetic below this
+     * point never boxes, only the final result is boxed by the caller.
+     *
+     * @param expression the {@link BExpression} to evaluate
+     * @return the value of the expression
+     * @throws NotANumber if the expression did not produce a number
+     */
+    double evaluateNumber(BExpression expression) {
+        Object value;
+        if (expression instanceof BExpression.Literal) {
+            value = ((BExpression.Literal)expression).getValue();
+        } else if (expression instanceof BExpression.Let) {
+            value = this.visitLetExpression((BExpression.Let)expression);
+        } else if (expression instanceof BExpression.Grouping) {
+            return this.evaluateNumber(((BExpression.Grouping)expression).getExpression());
+        } else if (expression instanceof BExpression.Binary) {
+            BExpression.Binary binary = (BExpression.Binary)expression;
+            return binary.getOperation().executeNumber(this, binary);
+        } else if (expression instanceof BExpression.Unary
+                && ((BExpression.Unary)expression).getOperator().getType() == BToken.Type.MINUS) {
+            return this.negate((BExpression.Unary)expression);
+        } else {
+            value = this.evaluate(expression);
         }
 
-        return null;
+        if (value instanceof Double) return (double)value;
+        throw new NotANumber(value);
+    }
+
+    /**
+     * Evaluate a condition without boxing the result of comparisons
+     */
+    private boolean evaluateCondition(BExpression expression) {
+        if (expression instanceof BExpression.Binary) {
+            BExpression.Binary binary = (BExpression.Binary)expression;
+            return binary.getOperation().executeCondition(this, binary);
+        }
+        return this.isTruthy(this.evaluate(expression));
+    }
+
+    /**
+     * Add two operands as numbers
+     *
+     * @throws NotANumber carrying the result if it was a string concatenation
+     */
+    double add(BExpression.Binary expression) {
+        BToken operator = expression.getOperator();
+
+        double left;
+        try {
+            left = this.evaluateNumber(expression.getLeft());
+        } catch (NotANumber exception) {
+            Object right = this.evaluate(expression.getRight());
+            throw new NotANumber(BOperations.add(operator, exception.value, right));
+        }
+
+        try {
+            return left + this.evaluateNumber(expression.getRight());
+        } catch (NotANumber exception) {
+            throw new NotANumber(BOperations.add(operator, left, exception.value));
+        }
+    }
+
+    private double negate(BExpression.Unary expression) {
+        try {
+            return -this.evaluateNumber(expression.getExpression());
+        } catch (NotANumber exception) {
+            throw new BRuntimeException(expression.getOperator(), "Operand must be a number.");
+        }
+    }
+
+    double leftOperand(BExpression.Binary expression) {
+        try {
+            return this.evaluateNumber(expression.getLeft());
+        } catch (NotANumber exception) {
+            // the right side is still evaluated before the type error, like the boxed path
+            this.evaluate(expression.getRight());
+            throw new BRuntimeException(expression.getOperator(), "Operands must be numbers.");
+        }
+    }
+
+    double rightOperand(BExpression.Binary expression) {
+        try {
+            return this.evaluateNumber(expression.getRight());
+        } catch (NotANumber exception) {
+            throw new BRuntimeException(expression.getOperator(), "Operands must be numbers.");
+        }
     }
 
     ///////////////////////////////////////////////////
     // UTILITY
     ///////////////////////////////////////////////////
 
-    private Object evaluate(BExpression expression) {
+    Object evaluate(BExpression expression) {
         return expression.accept(this);
     }
 
     private Object execute(BStatement statement) {
-        return statement.accept(this);
+        this.executed++;
+        if (this.recorder == null) return statement.accept(this);
+
+        this.recorder.enter(statement);
+        try {
+            return statement.accept(this);
+        } finally {
+            this.recorder.exit();
+        }
+    }
+
+    /**
+     * Use one unit of the fuel of the run
+     *
+     * @throws BOutOfFuelException if there is none left
+     */
+    private void burn() {
+        if (--this.fuel < 0) throw new BOutOfFuelException();
+    }
+
+    private void executeBlock(List<BStatement> statements, BFrame frame) {
+        BFrame previous = this.frame;
+        try {
+            this.frame = frame;
+            // indexed, so running a block does not allocate an iterator
+            for (int i = 0, size = statements.size(); i < size; i++) {
+                this.execute(statements.get(i));
+                if (this.returning) return;
+            }
+        } finally {
+            this.frame = previous;
+        }
+    }
+
+    /**
+     * @return a frame for a loop body to run every iteration in, or null if it needs a new one each time
+     */
+    private BFrame reusableFrame(BStatement body) {
+        if (!(body instanceof BStatement.Block) || !((BStatement.Block)body).isReusable()) return null;
+        return new BFrame(((BStatement.Block)body).getSlotCount(), this.frame);
+    }
+
+    /**
+     * Execute the body of a loop, in the given frame if it is a block
+     */
+    private void executeBody(BStatement body, BFrame frame) {
+        if (frame == null) {
+            this.execute(body);
+            return;
+        }
+
+        this.executed++;
+        this.burn();
+        if (this.recorder == null) {
+            this.executeBlock(((BStatement.Block)body).getStatements(), frame);
+            return;
+        }
+
+        this.recorder.enter(body);
+        try {
+            this.executeBlock(((BStatement.Block)body).getStatements(), frame);
+        } finally {
+            this.recorder.exit();
+        }
     }
 
-    private void executeBlock(List<BStatement> statements, BEnvironment environment) {
-        BEnvironment previous = this.environment;
+    /**
+     * Call a function declared by the script. Returns only set a flag that
+     * unwinds the body, and tail calls are made by this loop instead of by
+     * the return statement, so tail recursion runs in constant stack depth.
+     */
+    private Object call(BFunction function, Object[] arguments, BToken paren) {
+        if (this.frames == MAX_FRAMES) throw new BRuntimeException(paren, "Stack overflow.");
+        BFrame previous = this.frame;
+        this.frames++;
         try {
-            this.environment = environment;
-            for (BStatement statement : statements) this.execute(statement);
+            for (;;) {
+                if (arguments.length != function.arity())
+                    throw new BRuntimeException(paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+
+                this.burn();
+                this.frame = function.frame(arguments);
+                for (BStatement statement : function.getDeclaration().getBody()) {
+                    this.execute(statement);
+                    if (this.returning) break;
+                }
+                if (!this.returning) return null;
+                this.returning = false;
+
+                if (this.tailFunction == null) {
+                    Object value = this.returned;
+                    this.returned = null;
+                    return value;
+                }
+
+                function = this.tailFunction;
+                arguments = this.tailArguments;
+                paren = this.tailParen;
+                this.tailFunction = null;
+                this.tailArguments = null;
+            }
+        } catch (StackOverflowError error) {
+            throw new BRuntimeException(paren, "Stack overflow.");
         } finally {
-            this.environment = previous;
+            this.frame = previous;
+            this.frames--;
         }
     }
 
-    public void checkNumberOperands(BToken token, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new BRuntimeException(token, "Operands must be numbers.");
+    private Object[] arguments(BExpression.Call call) {
+        List<BExpression> arguments = call.getArguments();
+        Object[] values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++) values[i] = this.evaluate(arguments.get(i));
+        return values;
     }
 
     private boolean isTruthy(Object object) {
-        if (object == null) return false;
-        if (object instanceof Boolean) return (boolean)object;
-        return true;
+        return BOperations.isTruthy(object);
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) return true;
-        if (a == null) return false;
+    /**
+     * Signals that an expression evaluated as a number produced something else,
+     * only ever thrown on the way to a type error
+     */
+    static class NotANumber extends RuntimeException {
+
+        @Getter private final Object value;
+
+        NotANumber(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
 
-        return a.equals(b);
     }
 
 }
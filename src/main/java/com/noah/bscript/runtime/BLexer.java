@@ -1,126 +1,245 @@
 package com.noah.bscript.runtime;
 
 import com.noah.bscript.BScript;
+import com.noah.bscript.events.BLexEvent;
+import com.noah.bscript.exceptions.BScriptException;
+import com.noah.bscript.lang.BSymbolTable;
 import com.noah.bscript.lang.BToken;
+import com.noah.bscript.lang.BTokenBuffer;
+import com.noah.bscript.lang.BTokenStream;
 import com.noah.bscript.utils.CharacterUtils;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class BLexer {
+/**
+ * Turns source into tokens. Tokens are lexed on demand through {@link #next()},
+ * and when reading from a {@link Reader} only the characters of the token
+ * that is being lexed are kept in memory.
+ */
+public class BLexer implements BTokenStream {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int TIMED_TOKENS = 64 - 1; // every 64th pulled token is timed
 
     private BScript script;
-    private String source;
+    private Reader reader;
     private List<BToken> tokens;
 
+    private char[] buffer;
+    private int limit;
+
+    private BToken.Type type;
+    private int symbol;
     private int start;
     private int current;
     private int line;
 
+    private long time;
+    private long pulled;
+    private long timed;
+    private long timedTime;
+
     public BLexer(BScript script, String source) {
         this.script = script;
-        this.source = source;
+        this.buffer = source.toCharArray();
+        this.limit = this.buffer.length;
         this.tokens = new ArrayList<>();
     }
 
+    /**
+     * @param script the {@link BScript} errors are reported to
+     * @param reader the source, it is not closed by the lexer
+     */
+    public BLexer(BScript script, Reader reader) {
+        this.script = script;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.tokens = new ArrayList<>();
+    }
 
     /**
      * Tokenize the provided source with the BScript.
      */
     public List<BToken> tokenize() {
+        BLexEvent event = new BLexEvent();
+        event.begin();
         this.tokens.clear();
 
-        while (!this.isEnd()) {
-            this.start = this.current;
+        BToken token;
+        do {
+            token = this.next();
+            this.tokens.add(token);
+        } while (token.getType() != BToken.Type.EOF);
 
-            char next = this.advance();
-            switch (next) {
-
-                // one liners
-                case '(': this.add(BToken.Type.LEFT_PAREN); break;
-                case ')': this.add(BToken.Type.RIGHT_PAREN); break;
-                case '{': this.add(BToken.Type.LEFT_BRACE); break;
-                case '}': this.add(BToken.Type.RIGHT_BRACE); break;
-                case ',': this.add(BToken.Type.COMMA); break;
-                case '.': this.add(BToken.Type.DOT); break;
-                case '-': this.add(BToken.Type.MINUS); break;
-                case '+': this.add(BToken.Type.PLUS); break;
-                case ';': this.add(BToken.Type.SEMICOLON); break;
-                case '*': this.add(BToken.Type.STAR); break;
-                case '!': this.add(this.expect('=') ? BToken.Type.NOT_EQUAL : BToken.Type.NOT); break;
-                case '=': this.add(this.expect('=') ? BToken.Type.EQUAL_EQUAL : BToken.Type.EQUAL); break;
-                case '<': this.add(this.expect('=') ? BToken.Type.LESS_EQUAL : BToken.Type.LESS); break;
-                case '>': this.add(this.expect('=') ? BToken.Type.GREATER_EQUAL : BToken.Type.GREATER); break;
-
-                case '/':
-                    if (this.expect('/')) {
-                        while (this.peek() != CharacterUtils.LINE_FEED && !isEnd()) this.advance();
-                    } else if (this.expect('*')) {
-                        while (!(this.peek() == '*' && this.peekNext() == '/') && !isEnd()) this.advance();
-
-                        if (isEnd()) {
-                            this.script.error(this.line, " at end", "Block did not terminate.");
-                            break;
-                        }
-
-                        // eat the */
-                        this.consume(2);
-                    } else
-                        this.add(BToken.Type.SLASH);
-                    break;
+        this.commit(event, this.tokens.size());
+        return this.tokens;
+    }
 
-                case '"':
-                    while (this.peek() != '"' && !isEnd()) {
-                        if (this.peek() == CharacterUtils.LINE_FEED) this.line++;
-                        this.advance();
-                    }
+    /**
+     * Tokenize the whole source into a compact {@link BTokenBuffer}, whose
+     * lexemes point into the source instead of being copied out of it. This
+     * needs all of the source, so the lexer cannot be reading from a
+     * {@link Reader}.
+     */
+    public BTokenBuffer tokenizeBuffer() {
+        if (this.reader != null) throw new IllegalStateException("A token buffer needs a lexer over a String.");
+
+        BLexEvent event = new BLexEvent();
+        event.begin();
+        long started = System.nanoTime();
+
+        BTokenBuffer tokens = new BTokenBuffer(this.buffer);
+        while (this.scanNext()) tokens.add(this.type, this.start, this.current - this.start, this.line + 1, this.symbol);
+        tokens.add(BToken.Type.EOF, this.current, 0, this.line, -1);
+        this.time += System.nanoTime() - started;
+
+        this.commit(event, tokens.size());
+        return tokens;
+    }
+
+    private void commit(BLexEvent event, int tokens) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setPath(this.script.getFile().getPath());
+            event.setTokens(tokens);
+            event.setFailed(this.script.isFailed());
+            event.commit();
+        }
+    }
+
+    @Override
+    public BToken next() {
+        if ((this.pulled++ & TIMED_TOKENS) != 0) return this.token();
+
+        long started = System.nanoTime();
+        BToken token = this.token();
+        this.timedTime += System.nanoTime() - started;
+        this.timed++;
+        return token;
+    }
+
+    /**
+     * @return the time spent lexing so far in nanoseconds. Tokens that are
+     *         pulled one at a time are only timed every 64th token, so for
+     *         them it is an estimate.
+     */
+    public long getTime() {
+        if (this.timed == 0) return this.time;
+        return this.time + this.timedTime * this.pulled / this.timed;
+    }
+
+    private BToken token() {
+        if (!this.scanNext()) return new BToken(BToken.Type.EOF, "<EOF>", null, this.line);
+        return BTokenBuffer.token(this.buffer, this.type, this.start, this.current - this.start, this.line + 1, this.symbol);
+    }
+
+    /**
+     * Scan until a token was found
+     *
+     * @return true if a token was scanned, false at the end of the source
+     */
+    private boolean scanNext() {
+        this.type = null;
+        while (this.type == null) {
+            if (this.isEnd()) return false;
+
+            this.start = this.current;
+            this.symbol = -1;
+            this.scan();
+        }
+        return true;
+    }
+
+    /**
+     * Scan the characters at the current position, this might not produce a token
+     */
+    private void scan() {
+        char next = this.advance();
+        switch (next) {
+
+            // one liners
+            case '(': this.add(BToken.Type.LEFT_PAREN); break;
+            case ')': this.add(BToken.Type.RIGHT_PAREN); break;
+            case '{': this.add(BToken.Type.LEFT_BRACE); break;
+            case '}': this.add(BToken.Type.RIGHT_BRACE); break;
+            case ',': this.add(BToken.Type.COMMA); break;
+            case '.': this.add(BToken.Type.DOT); break;
+            case '-': this.add(BToken.Type.MINUS); break;
+            case '+': this.add(BToken.Type.PLUS); break;
+            case ';': this.add(BToken.Type.SEMICOLON); break;
+            case '*': this.add(BToken.Type.STAR); break;
+            case '!': this.add(this.expect('=') ? BToken.Type.NOT_EQUAL : BToken.Type.NOT); break;
+            case '=': this.add(this.expect('=') ? BToken.Type.EQUAL_EQUAL : BToken.Type.EQUAL); break;
+            case '<': this.add(this.expect('=') ? BToken.Type.LESS_EQUAL : BToken.Type.LESS); break;
+            case '>': this.add(this.expect('=') ? BToken.Type.GREATER_EQUAL : BToken.Type.GREATER); break;
+
+            case '/':
+                if (this.expect('/')) {
+                    while (this.peek() != CharacterUtils.LINE_FEED && !isEnd()) this.advance();
+                } else if (this.expect('*')) {
+                    while (!(this.peek() == '*' && this.peekNext() == '/') && !isEnd()) this.advance();
 
                     if (isEnd()) {
-                        this.script.error(this.line, " at end", "String did not terminate.");
+                        this.script.error(this.line, " at end", "Block did not terminate.");
                         break;
                     }
 
-                    // eat the "
-                    this.consume(1);
+                    // eat the */
+                    this.consume(2);
+                } else
+                    this.add(BToken.Type.SLASH);
+                break;
+
+            case '"':
+                while (this.peek() != '"' && !isEnd()) {
+                    if (this.peek() == CharacterUtils.LINE_FEED) this.line++;
+                    this.advance();
+                }
 
-                    String value = this.source.substring(this.start + 1, this.current - 1);
-                    this.add(BToken.Type.STRING, value);
+                if (isEnd()) {
+                    this.script.error(this.line, " at end", "String did not terminate.");
                     break;
+                }
 
-                // ignore whitespace
-                case CharacterUtils.SPACE:
-                case CharacterUtils.TAB:
-                case CharacterUtils.CARRIAGE_RETURN: break;
-                case CharacterUtils.LINE_FEED: this.line++; break;
+                // eat the "
+                this.consume(1);
 
-                default:
-                    if (Character.isDigit(next)) {
-                        while (Character.isDigit(this.peek())) this.advance();
-                        if (this.peek() == '.' && Character.isDigit(this.peekNext())) {
-                            this.consume(1); // eat the .
-                            while (Character.isDigit(this.peek())) this.advance();
-                        }
+                this.add(BToken.Type.STRING);
+                break;
 
-                        this.add(BToken.Type.NUMBER, Double.parseDouble(this.source.substring(this.start, this.current)));
-                        break;
+            // ignore whitespace
+            case CharacterUtils.SPACE:
+            case CharacterUtils.TAB:
+            case CharacterUtils.CARRIAGE_RETURN: break;
+            case CharacterUtils.LINE_FEED: this.line++; break;
+
+            default:
+                if (Character.isDigit(next)) {
+                    while (Character.isDigit(this.peek())) this.advance();
+                    if (this.peek() == '.' && Character.isDigit(this.peekNext())) {
+                        this.consume(1); // eat the .
+                        while (Character.isDigit(this.peek())) this.advance();
                     }
 
-                    else if (CharacterUtils.isAlphanumeric(next)) {
-                        while (CharacterUtils.isAlphanumeric(this.peek())) this.advance();
+                    this.add(BToken.Type.NUMBER);
+                    break;
+                }
 
-                        String text = source.substring(this.start, this.current);
-                        BToken.Type type = BToken.Type.getByText(text);
-                        if (type == null) type = BToken.Type.IDENTIFIER;
-                        this.add(type, this.source.substring(this.start, this.current));
-                        break;
-                    }
+                else if (CharacterUtils.isAlphanumeric(next)) {
+                    while (CharacterUtils.isAlphanumeric(this.peek())) this.advance();
 
-                    else this.script.error(this.line, "Could not identify token: " + next);
-             }
-        }
+                    this.symbol = BSymbolTable.intern(this.buffer, this.start, this.current - this.start);
+                    BToken.Type type = BSymbolTable.keyword(this.symbol);
+                    this.add(type != null ? type : BToken.Type.IDENTIFIER);
+                    break;
+                }
 
-        this.tokens.add(new BToken(BToken.Type.EOF, "<EOF>", null, this.line));
-        return this.tokens;
+                else this.script.error(this.line, "Could not identify token: " + next);
+        }
     }
 
     /**
@@ -129,7 +248,7 @@ public class BLexer {
      * @return the next character
      */
     private char advance() {
-        return this.source.charAt(this.current++);
+        return this.buffer[this.current++];
     }
 
     /**
@@ -149,7 +268,7 @@ public class BLexer {
      */
     private boolean expect(char expected) {
         if (this.isEnd()) return false;
-        if (this.source.charAt(this.current) != expected) return false;
+        if (this.buffer[this.current] != expected) return false;
 
         this.current++;
         return true;
@@ -162,7 +281,7 @@ public class BLexer {
      */
     private char peek() {
         if (this.isEnd()) return CharacterUtils.NULL_TERMINATOR;
-        return this.source.charAt(this.current);
+        return this.buffer[this.current];
     }
 
     /**
@@ -171,35 +290,72 @@ public class BLexer {
      * @return the next character
      */
     private char peekNext() {
-        if (this.current + 1 >= this.source.length()) return CharacterUtils.NULL_TERMINATOR;
-        return this.source.charAt(this.current + 1);
+        if (!this.available(1)) return CharacterUtils.NULL_TERMINATOR;
+        return this.buffer[this.current + 1];
     }
 
     /**
-     * Add a token to the list of tokens with no literal
+     * Set the type of the token that was scanned
      *
      * @param type the {@link BToken.Type}
      */
     private void add(BToken.Type type) {
-        this.add(type, null);
+        this.type = type;
+    }
+
+    /**
+     * @return if we have reached the end of the source or not
+     */
+    private boolean isEnd() {
+        return !this.available(0);
     }
 
     /**
-     * Add a token to the list of tokens with a literal
+     * Check if there is a character a certain amount past the current,
+     * reading more of the source if needed
      *
-     * @param type the {@link BToken.Type}
-     * @param literal the literal Object
+     * @param ahead how far past the current character to look
+     * @return if the character is there or not
      */
-    private void add(BToken.Type type, Object literal) {
-        String text = this.source.substring(this.start, this.current);
-        this.tokens.add(new BToken(type, text, literal, this.line + 1));
+    private boolean available(int ahead) {
+        while (this.current + ahead >= this.limit) {
+            if (!this.fill()) return false;
+        }
+        return true;
     }
 
     /**
-     * @return if we have reached the end of the source or not
+     * Read more of the source into the buffer. Characters before the start of
+     * the current token are no longer needed, so they are dropped first.
+     *
+     * @return if anything was read
      */
-    private boolean isEnd() {
-        return this.current >= this.source.length();
+    private boolean fill() {
+        if (this.reader == null) return false;
+
+        if (this.start > 0) {
+            System.arraycopy(this.buffer, this.start, this.buffer, 0, this.limit - this.start);
+            this.limit -= this.start;
+            this.current -= this.start;
+            this.start = 0;
+        }
+        if (this.limit == this.buffer.length) this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+
+        try {
+            int read = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            if (read < 0) {
+                this.reader = null;
+                return false;
+            }
+
+            // a reader may not fit anything in the room that is left, such as half of a surrogate pair
+            if (read == 0) this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+
+            this.limit += read;
+            return true;
+        } catch (IOException exception) {
+            throw new BScriptException("Could not read script: " + exception.getMessage());
+        }
     }
 
     public void print() {
@@ -0,0 +1,148 @@
+package com.noah.bscript.runtime;
+
+import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.lang.BToken;
+
+/**
+ * The semantics of every bScript operator, shared by all execution backends
+ * so that they always agree on the result of an expression.
+ */
+public final class BOperations {
+
+    // boxes for small whole numbers, so counters and indexes don't allocate
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final Double[] CACHE = new Double[CACHE_HIGH - CACHE_LOW];
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) CACHE[i] = (double)(i + CACHE_LOW);
+    }
+
+    private BOperations() {}
+
+    /**
+     * Box a number, reusing a cached {@link Double} for small whole numbers
+     *
+     * @param value the number
+     * @return the boxed number
+     */
+    public static Double valueOf(double value) {
+        int index = (int)value;
+        if (index == value && index >= CACHE_LOW && index < CACHE_HIGH
+                && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO) return CACHE[index - CACHE_LOW];
+        return value;
+    }
+
+    public static Object binary(BToken operator, Object left, Object right) {
+        switch (operator.getType()) {
+            case GREATER: return greater(operator, left, right);
+            case GREATER_EQUAL: return greaterEqual(operator, left, right);
+            case LESS: return less(operator, left, right);
+            case LESS_EQUAL: return lessEqual(operator, left, right);
+            case MINUS: return subtract(operator, left, right);
+            case SLASH: return divide(operator, left, right);
+            case STAR: return multiply(operator, left, right);
+            case NOT_EQUAL: return !isEqual(left, right);
+            case EQUAL_EQUAL: return isEqual(left, right);
+            case PLUS: return add(operator, left, right);
+        }
+
+        return null;
+    }
+
+    public static Object unary(BToken operator, Object right) {
+        switch (operator.getType()) {
+            case MINUS: return negate(operator, right);
+            case NOT: return !isTruthy(right);
+        }
+
+        return null;
+    }
+
+    public static Object add(BToken operator, Object left, Object right) {
+        if (left instanceof Double) {
+            if (right instanceof Double) return valueOf((double)left + (double)right);
+            if (isString(right)) return BString.concat(left, right);
+        }
+        if (isString(left) && (isString(right) || right instanceof Double)) return BString.concat(left, right);
+        throw new BRuntimeException(operator, "Operands must be string or number.");
+    }
+
+    public static Object subtract(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return valueOf((double)left - (double)right);
+    }
+
+    public static Object multiply(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return valueOf((double)left * (double)right);
+    }
+
+    public static Object divide(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return valueOf((double)left / (double)right);
+    }
+
+    public static boolean greater(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    public static boolean greaterEqual(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    public static boolean less(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    public static boolean lessEqual(BToken operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    public static Object negate(BToken operator, Object right) {
+        if (!(right instanceof Double)) throw new BRuntimeException(operator, "Operand must be a number.");
+        return valueOf(-(double)right);
+    }
+
+    public static void checkNumberOperands(BToken token, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new BRuntimeException(token, "Operands must be numbers.");
+    }
+
+    public static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    public static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return toJava(a).equals(toJava(b));
+    }
+
+    /**
+     * @param object a value
+     * @return if the value is a string, flattened or not
+     */
+    public static boolean isString(Object object) {
+        return object instanceof String || object instanceof BString;
+    }
+
+    /**
+     * Turn a value into the form it is handed back to Java in
+     *
+     * @param object a value
+     * @return the value, with strings flattened into a {@link String}
+     */
+    public static Object toJava(Object object) {
+        return object instanceof BString ? object.toString() : object;
+    }
+
+}
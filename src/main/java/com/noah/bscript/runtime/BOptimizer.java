@@ -0,0 +1,381 @@
+package com.noah.bscript.runtime;
+
+import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Folds constant expressions, strips dead branches and removes redundant
+ * groupings and blocks. Runs before the {@link BResolver} since collapsing
+ * blocks changes the scopes it sees.
+ */
+public class BOptimizer implements BExpression.Visitor<BExpression>, BStatement.Visitor<BStatement> {
+
+    @Getter private int eliminated;
+
+    /**
+     * Optimize the statements of a script
+     *
+     * @param statements the parsed statements
+     * @return the optimized statements
+     */
+    public List<BStatement> optimize(List<BStatement> statements) {
+        List<BStatement> optimized = this.optimizeAll(statements);
+        this.eliminated += count(statements) - count(optimized);
+        return optimized;
+    }
+
+    ///////////////////////////////////////////////////
+    // STATEMENTS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public BStatement visitIf(BStatement.If statement) {
+        BExpression condition = this.optimize(statement.getExpression());
+        BStatement thenBranch = this.optimize(statement.getThenBranch());
+        BStatement elseBranch = this.optimize(statement.getElseBranch());
+
+        if (condition instanceof BExpression.Literal) {
+            if (BOperations.isTruthy(((BExpression.Literal)condition).getValue())) return thenBranch;
+            return elseBranch;
+        }
+
+        return new BStatement.If(condition, orEmpty(thenBranch), elseBranch).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitWhile(BStatement.While statement) {
+        BExpression condition = this.optimize(statement.getCondition());
+        if (condition instanceof BExpression.Literal && !BOperations.isTruthy(((BExpression.Literal)condition).getValue())) return null;
+
+        return new BStatement.While(condition, orEmpty(this.optimize(statement.getBody()))).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitFor(BStatement.For statement) {
+        BStatement initializer = this.optimize(statement.getInitializer());
+        BExpression condition = this.optimize(statement.getCondition());
+        if (condition instanceof BExpression.Literal && !BOperations.isTruthy(((BExpression.Literal)condition).getValue())) {
+            if (initializer == null) return null;
+            // the initializer still runs, in a scope of its own
+            return new BStatement.Block(Collections.singletonList(initializer)).at(statement.getLine());
+        }
+
+        BExpression increment = this.optimize(statement.getIncrement());
+        if (increment instanceof BExpression.Literal) increment = null;
+        return new BStatement.For(initializer, condition, increment, orEmpty(this.optimize(statement.getBody()))).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitBlock(BStatement.Block statement) {
+        List<BStatement> statements = this.optimizeAll(statement.getStatements());
+        if (statements.isEmpty()) return null;
+        if (statements.size() == 1 && !declares(statements.get(0))) return statements.get(0);
+        return new BStatement.Block(statements).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitExpression(BStatement.Expression statement) {
+        BExpression expression = this.optimize(statement.getExpression());
+        // nothing to evaluate, nothing to run
+        if (expression instanceof BExpression.Literal) return null;
+        return new BStatement.Expression(expression).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitLetStatement(BStatement.Let statement) {
+        return new BStatement.Let(statement.getName(), this.optimize(statement.getInitializer())).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitPrint(BStatement.Print statement) {
+        return new BStatement.Print(this.optimize(statement.getExpression())).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitFunction(BStatement.Function statement) {
+        return new BStatement.Function(statement.getName(), statement.getParameters(), this.optimizeAll(statement.getBody())).at(statement.getLine());
+    }
+
+    @Override
+    public BStatement visitReturn(BStatement.Return statement) {
+        return new BStatement.Return(statement.getKeyword(), this.optimize(statement.getValue())).at(statement.getLine());
+    }
+
+    ///////////////////////////////////////////////////
+    // EXPRESSIONS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public BExpression visitAssign(BExpression.Assign expression) {
+        return new BExpression.Assign(expression.getName(), this.optimize(expression.getValue()));
+    }
+
+    @Override
+    public BExpression visitCall(BExpression.Call expression) {
+        List<BExpression> arguments = new ArrayList<>(expression.getArguments().size());
+        for (BExpression argument : expression.getArguments()) arguments.add(this.optimize(argument));
+        return new BExpression.Call(this.optimize(expression.getCallee()), expression.getParen(), arguments);
+    }
+
+    @Override
+    public BExpression visitLetExpression(BExpression.Let expression) {
+        return new BExpression.Let(expression.getName());
+    }
+
+    @Override
+    public BExpression visitBinary(BExpression.Binary expression) {
+        BExpression left = this.optimize(expression.getLeft());
+        BExpression right = this.optimize(expression.getRight());
+
+        if (left instanceof BExpression.Literal && right instanceof BExpression.Literal) {
+            try {
+                Object value = BOperations.binary(expression.getOperator(), ((BExpression.Literal)left).getValue(), ((BExpression.Literal)right).getValue());
+                return new BExpression.Literal(BOperations.toJava(value));
+            } catch (BRuntimeException exception) {
+                // leave it for the runtime to report
+            }
+        }
+
+        return new BExpression.Binary(left, expression.getOperator(), right);
+    }
+
+    @Override
+    public BExpression visitGrouping(BExpression.Grouping expression) {
+        // the parser already encoded the precedence in the tree
+        return this.optimize(expression.getExpression());
+    }
+
+    @Override
+    public BExpression visitLiteral(BExpression.Literal expression) {
+        return expression;
+    }
+
+    @Override
+    public BExpression visitLogical(BExpression.Logical expression) {
+        BExpression left = this.optimize(expression.getLeft());
+        BExpression right = this.optimize(expression.getRight());
+
+        if (left instanceof BExpression.Literal) {
+            boolean truthy = BOperations.isTruthy(((BExpression.Literal)left).getValue());
+            if (expression.getOperator().getType() == BToken.Type.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new BExpression.Logical(left, expression.getOperator(), right);
+    }
+
+    @Override
+    public BExpression visitUnary(BExpression.Unary expression) {
+        BExpression right = this.optimize(expression.getExpression());
+
+        if (right instanceof BExpression.Literal) {
+            try {
+                return new BExpression.Literal(BOperations.unary(expression.getOperator(), ((BExpression.Literal)right).getValue()));
+            } catch (BRuntimeException exception) {
+                // leave it for the runtime to report
+            }
+        }
+
+        return new BExpression.Unary(expression.getOperator(), right);
+    }
+
+    ///////////////////////////////////////////////////
+    // UTILITY
+    ///////////////////////////////////////////////////
+
+    private List<BStatement> optimizeAll(List<BStatement> statements) {
+        List<BStatement> optimized = new ArrayList<>(statements.size());
+        for (BStatement statement : statements) {
+            BStatement result = this.optimize(statement);
+            if (result == null) continue;
+
+            // a block that declares nothing doesn't need its own scope
+            if (result instanceof BStatement.Block && !declares((BStatement.Block)result)) optimized.addAll(((BStatement.Block)result).getStatements());
+            else optimized.add(result);
+        }
+        return optimized;
+    }
+
+    private BStatement optimize(BStatement statement) {
+        if (statement == null) return null;
+        return statement.accept(this);
+    }
+
+    private BExpression optimize(BExpression expression) {
+        if (expression == null) return null;
+        return expression.accept(this);
+    }
+
+    private static BStatement orEmpty(BStatement statement) {
+        if (statement == null) return new BStatement.Block(Collections.emptyList());
+        return statement;
+    }
+
+    private static boolean declares(BStatement.Block block) {
+        for (BStatement statement : block.getStatements()) {
+            if (declares(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean declares(BStatement statement) {
+        return statement instanceof BStatement.Let || statement instanceof BStatement.Function;
+    }
+
+    private static int count(List<BStatement> statements) {
+        Counter counter = new Counter();
+        for (BStatement statement : statements) counter.count(statement);
+        return counter.nodes;
+    }
+
+    /**
+     * Counts the nodes of a tree, used to report how much was eliminated
+     */
+    private static class Counter implements BExpression.Visitor<Void>, BStatement.Visitor<Void> {
+
+        private int nodes;
+
+        private void count(BStatement statement) {
+            if (statement != null) statement.accept(this);
+        }
+
+        private void count(BExpression expression) {
+            if (expression != null) expression.accept(this);
+        }
+
+        @Override
+        public Void visitIf(BStatement.If statement) {
+            this.nodes++;
+            this.count(statement.getExpression());
+            this.count(statement.getThenBranch());
+            this.count(statement.getElseBranch());
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(BStatement.While statement) {
+            this.nodes++;
+            this.count(statement.getCondition());
+            this.count(statement.getBody());
+            return null;
+        }
+
+        @Override
+        public Void visitFor(BStatement.For statement) {
+            this.nodes++;
+            this.count(statement.getInitializer());
+            this.count(statement.getCondition());
+            this.count(statement.getIncrement());
+            this.count(statement.getBody());
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(BStatement.Block statement) {
+            this.nodes++;
+            for (BStatement inner : statement.getStatements()) this.count(inner);
+            return null;
+        }
+
+        @Override
+        public Void visitExpression(BStatement.Expression statement) {
+            this.nodes++;
+            this.count(statement.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitLetStatement(BStatement.Let statement) {
+            this.nodes++;
+            this.count(statement.getInitializer());
+            return null;
+        }
+
+        @Override
+        public Void visitPrint(BStatement.Print statement) {
+            this.nodes++;
+            this.count(statement.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitBinary(BExpression.Binary expression) {
+            this.nodes++;
+            this.count(expression.getLeft());
+            this.count(expression.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visitGrouping(BExpression.Grouping expression) {
+            this.nodes++;
+            this.count(expression.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitLiteral(BExpression.Literal expression) {
+            this.nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitLogical(BExpression.Logical expression) {
+            this.nodes++;
+            this.count(expression.getLeft());
+            this.count(expression.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visitUnary(BExpression.Unary expression) {
+            this.nodes++;
+            this.count(expression.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visitLetExpression(BExpression.Let expression) {
+            this.nodes++;
+            return null;
+        }
+
+        @Override
+        public Void visitAssign(BExpression.Assign expression) {
+            this.nodes++;
+            this.count(expression.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitFunction(BStatement.Function statement) {
+            this.nodes++;
+            for (BStatement inner : statement.getBody()) this.count(inner);
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(BStatement.Return statement) {
+            this.nodes++;
+            this.count(statement.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visitCall(BExpression.Call expression) {
+            this.nodes++;
+            this.count(expression.getCallee());
+            for (BExpression argument : expression.getArguments()) this.count(argument);
+            return null;
+        }
+
+    }
+
+}
@@ -1,29 +1,72 @@
 package com.noah.bscript.runtime;
 
 import com.noah.bscript.BScript;
+import com.noah.bscript.events.BParseEvent;
 import com.noah.bscript.exceptions.BParseException;
 import com.noah.bscript.lang.BExpression;
 import com.noah.bscript.lang.BStatement;
 import com.noah.bscript.lang.BToken;
+import com.noah.bscript.lang.BTokenBuffer;
+import com.noah.bscript.lang.BTokenStream;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class BParser {
 
+    public static final int MAX_ARGUMENTS = 255;
+
     private BScript script;
-    private final List<BToken> tokens;
-    private int current = 0;
+    private final BTokenStream tokens;
+    private final BTokenBuffer buffer;
+    private int current;
+    private BToken previous;
+    private BToken next;
+    private int consumed;
+    private int functions; // how many function bodies the parser is in
 
     public BParser(BScript script, List<BToken> tokens) {
+        this(script, BTokenStream.of(tokens));
+    }
+
+    /**
+     * @param script the {@link BScript} errors are reported to
+     * @param tokens the tokens, which are pulled as the parser needs them
+     */
+    public BParser(BScript script, BTokenStream tokens) {
         this.script = script;
         this.tokens = tokens;
+        this.buffer = null;
+    }
+
+    /**
+     * Parse straight out of a {@link BTokenBuffer}. Tokens are only turned
+     * into {@link BToken} objects when they end up in the tree.
+     *
+     * @param script the {@link BScript} errors are reported to
+     * @param buffer the tokens
+     */
+    public BParser(BScript script, BTokenBuffer buffer) {
+        this.script = script;
+        this.tokens = null;
+        this.buffer = buffer;
     }
 
     public List<BStatement> parse() {
+        BParseEvent event = new BParseEvent();
+        event.begin();
+
         List<BStatement> statements = new ArrayList<>();
         while (!isEnd()) statements.add(this.declaration());
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.setPath(this.script.getFile().getPath());
+            event.setTokens(this.consumed + 1);
+            event.setStatements(statements.size());
+            event.setFailed(this.script.isFailed());
+            event.commit();
+        }
         return statements;
     }
 
@@ -40,10 +83,12 @@ public class BParser {
         return statements;
     }
 
-    // declaration    → letDecl
+    // declaration    → funDecl
+    //                | letDecl
     //                | statement ;
     private BStatement declaration() {
         try {
+            if (this.match(BToken.Type.DEF)) return this.function();
             if (this.match(BToken.Type.LET)) return this.letDeclaration();
             return this.statement();
         } catch (BParseException exception) {
@@ -52,21 +97,50 @@ public class BParser {
         }
     }
 
+    // funDecl        → "def" IDENTIFIER "(" parameters? ")" block ;
+    // parameters     → IDENTIFIER ( "," IDENTIFIER )* ;
+    private BStatement function() {
+        int line = this.previousLine();
+        this.consume(BToken.Type.IDENTIFIER, "Expected function name.");
+        BToken name = this.previous();
+
+        this.consume(BToken.Type.LEFT_PAREN, "Expected '(' after function name.");
+        List<BToken> parameters = new ArrayList<>();
+        if (!this.check(BToken.Type.RIGHT_PAREN)) {
+            do {
+                if (parameters.size() >= MAX_ARGUMENTS) this.script.error(peek(), "Can't have more than " + MAX_ARGUMENTS + " parameters.");
+                this.consume(BToken.Type.IDENTIFIER, "Expected parameter name.");
+                parameters.add(this.previous());
+            } while (this.match(BToken.Type.COMMA));
+        }
+        this.consume(BToken.Type.RIGHT_PAREN, "Expected ')' after parameters.");
+
+        this.consume(BToken.Type.LEFT_BRACE, "Expected '{' before function body.");
+        this.functions++;
+        try {
+            return new BStatement.Function(name, parameters, this.block()).at(line);
+        } finally {
+            this.functions--;
+        }
+    }
+
     // letDecl        → "let" IDENTIFIER ( "=" expression )? ";" ;
     private BStatement letDeclaration() {
-        BToken name = this.consume(BToken.Type.IDENTIFIER, "Expected variable name.");
+        this.consume(BToken.Type.IDENTIFIER, "Expected variable name.");
+        BToken name = this.previous();
 
         BExpression initializer = null;
         if (this.match(BToken.Type.EQUAL)) initializer = this.expression();
 
         this.consume(BToken.Type.SEMICOLON, "Expected ';' after variable declaration.");
-        return new BStatement.Let(name, initializer);
+        return new BStatement.Let(name, initializer).at(name.getPosition());
     }
 
     // statement      → exprStmt
     //                | forStatement
     //                | ifStatement
     //                | printStmt
+    //                | returnStmt
     //                | whileStatement
     //                | block ;
     private BStatement statement() {
@@ -74,13 +148,18 @@ public class BParser {
         if (this.match(BToken.Type.IF)) return this.ifStatement();
         if (this.match(BToken.Type.WHILE)) return this.whileStatement();
         if (this.match(BToken.Type.PRINT)) return this.printStatement();
-        if (this.match(BToken.Type.LEFT_BRACE)) return new BStatement.Block(this.block());
+        if (this.match(BToken.Type.RETURN)) return this.returnStatement();
+        if (this.match(BToken.Type.LEFT_BRACE)) {
+            int line = this.previousLine();
+            return new BStatement.Block(this.block()).at(line);
+        }
         return this.expressionStatement();
     }
 
     // ifStmt         → "if" "(" expression ")" statement
     //                ( "else" statement )? ;
     private BStatement ifStatement() {
+        int line = this.previousLine();
         this.consume(BToken.Type.LEFT_PAREN, "Expected '(' after 'if'.");
         BExpression expression = this.expression();
         this.consume(BToken.Type.RIGHT_PAREN, "Expected ')' after if condition.");
@@ -88,21 +167,23 @@ public class BParser {
         BStatement thenBranch = this.statement();
         BStatement elseBranch = null;
         if (this.match(BToken.Type.ELSE)) elseBranch = this.statement();
-        return new BStatement.If(expression, thenBranch, elseBranch);
+        return new BStatement.If(expression, thenBranch, elseBranch).at(line);
     }
 
     // whileStatement      → "while" "(" expression ")" statement;
     private BStatement whileStatement() {
+        int line = this.previousLine();
         this.consume(BToken.Type.LEFT_PAREN, "Expected '(' after 'while'.");
         BExpression expression = this.expression();
         this.consume(BToken.Type.RIGHT_PAREN, "Expected ')' after while condition.");
-        return new BStatement.While(expression, this.statement());
+        return new BStatement.While(expression, this.statement()).at(line);
     }
 
     // forStmt        → "for" "(" ( varDecl | exprStmt | ";" )
     //                  expression? ";"
     //                  expression? ")" statement ;
     private BStatement forStatement() {
+        int line = this.previousLine();
         this.consume(BToken.Type.LEFT_PAREN, "Expected '(' after 'for'.");
 
         // grab the initializer variable if there is one
@@ -123,34 +204,38 @@ public class BParser {
 
         // grab the body as a statement
         BStatement body = this.statement();
-        if (increment != null) {
-            body = new BStatement.Block(Arrays.asList(body, new BStatement.Expression(increment))); // add the increment as a statement (at the end of the body)
-                                                                                                    // if it exists
-        }
 
         // if there is no condition, loop forever basically
         if (condition == null) condition = new BExpression.Literal(true);
-        body = new BStatement.While(condition, body);
-
-        // add the initializer in a new block if it exists
-        if (initializer != null) body = new BStatement.Block(Arrays.asList(initializer, body));
-
-        return body;
+        return new BStatement.For(initializer, condition, increment, body).at(line);
     }
 
 
     // printStatement      → "print" expressionStatement
     private BStatement printStatement() {
+        int line = this.previousLine();
         BExpression value = this.expression();
         this.consume(BToken.Type.SEMICOLON, "Expect ';' after value.");
-        return new BStatement.Print(value);
+        return new BStatement.Print(value).at(line);
+    }
+
+    // returnStmt     → "return" expression? ";" ;
+    private BStatement returnStatement() {
+        BToken keyword = this.previous();
+        if (this.functions == 0) this.script.error(keyword, "Can't return from top-level code.");
+
+        BExpression value = null;
+        if (!this.check(BToken.Type.SEMICOLON)) value = this.expression();
+        this.consume(BToken.Type.SEMICOLON, "Expect ';' after return value.");
+        return new BStatement.Return(keyword, value).at(keyword.getPosition());
     }
 
     // expressionStatement → expression ";"
     private BStatement expressionStatement() {
+        int line = this.peekLine();
         BExpression value = this.expression();
         this.consume(BToken.Type.SEMICOLON, "Expect ';' after expression.");
-        return new BStatement.Expression(value);
+        return new BStatement.Expression(value).at(line);
     }
 
     ///////////////////////////////////////////////////
@@ -259,7 +344,7 @@ public class BParser {
     }
 
     // unary          → ( "!" | "-" ) unary
-    //                | primary ;
+    //                | call ;
     private BExpression unary() {
         if (this.match(BToken.Type.NOT, BToken.Type.MINUS)) {
             BToken operator = this.previous();
@@ -267,7 +352,30 @@ public class BParser {
             return new BExpression.Unary(operator, right);
         }
 
-        return this.primary();
+        return this.call();
+    }
+
+    // call           → primary ( "(" arguments? ")" )* ;
+    private BExpression call() {
+        BExpression expression = this.primary();
+
+        while (this.match(BToken.Type.LEFT_PAREN)) expression = this.finishCall(expression);
+
+        return expression;
+    }
+
+    // arguments      → expression ( "," expression )* ;
+    private BExpression finishCall(BExpression callee) {
+        List<BExpression> arguments = new ArrayList<>();
+        if (!this.check(BToken.Type.RIGHT_PAREN)) {
+            do {
+                if (arguments.size() >= MAX_ARGUMENTS) this.script.error(peek(), "Can't have more than " + MAX_ARGUMENTS + " arguments.");
+                arguments.add(this.expression());
+            } while (this.match(BToken.Type.COMMA));
+        }
+
+        this.consume(BToken.Type.RIGHT_PAREN, "Expected ')' after arguments.");
+        return new BExpression.Call(callee, this.previous(), arguments);
     }
 
     private BExpression primary() {
@@ -303,24 +411,54 @@ public class BParser {
 
     private boolean check(BToken.Type type) {
         if (isEnd()) return false;
-        return peek().getType() == type;
+        return this.peekType() == type;
     }
 
-    private BToken advance() {
-        if (!isEnd()) this.current++;
-        return previous();
+    private void advance() {
+        if (isEnd()) return;
+
+        this.consumed++;
+        if (this.buffer != null) {
+            this.current++;
+            this.previous = null;
+        } else {
+            this.previous = this.next;
+            this.next = null;
+        }
+    }
+
+    private BToken.Type peekType() {
+        if (this.buffer != null) return this.buffer.type(this.current);
+        return this.peek().getType();
     }
 
     private BToken peek() {
-        return this.tokens.get(this.current);
+        if (this.buffer != null) return this.buffer.token(this.current);
+
+        if (this.next == null) this.next = this.tokens.next();
+        return this.next;
     }
 
     private BToken previous() {
-        return this.tokens.get(this.current - 1);
+        if (this.previous == null && this.buffer != null) this.previous = this.buffer.token(this.current - 1);
+        return this.previous;
+    }
+
+    private int peekLine() {
+        if (this.buffer != null) return this.buffer.line(this.current);
+        return this.peek().getPosition();
+    }
+
+    private int previousLine() {
+        if (this.buffer != null) return this.buffer.line(this.current - 1);
+        return this.previous().getPosition();
     }
 
-    private BToken consume(BToken.Type type, String message) {
-        if (this.check(type)) return this.advance();
+    private void consume(BToken.Type type, String message) {
+        if (this.check(type)) {
+            this.advance();
+            return;
+        }
 
         this.script.error(peek(), message);
         throw new BParseException();
@@ -332,7 +470,7 @@ public class BParser {
         while (!isEnd()) {
             if (this.previous().getType() == BToken.Type.SEMICOLON) return;
 
-            switch (this.peek().getType()) {
+            switch (this.peekType()) {
                 case CLASS:
                 case DEF:
                 case LET:
@@ -349,7 +487,7 @@ public class BParser {
     }
 
     private boolean isEnd() {
-        return this.peek().getType() == BToken.Type.EOF;
+        return this.peekType() == BToken.Type.EOF;
     }
 
 }
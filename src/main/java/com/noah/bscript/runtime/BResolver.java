@@ -0,0 +1,312 @@
+package com.noah.bscript.runtime;
+
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds every local variable to a (depth, slot) pair ahead of time so
+ * the interpreter can index frames directly. Anything declared outside
+ * a block stays in the global {@link BEnvironment}.
+ */
+public class BResolver implements BExpression.Visitor<Void>, BStatement.Visitor<Void> {
+
+    private final List<Map<String, Integer>> scopes;
+
+    // the induction variables of the for loops being resolved
+    private final List<Induction> inductions = new ArrayList<>();
+
+    // how many functions were declared so far
+    private int functions;
+
+    public BResolver() {
+        this.scopes = new ArrayList<>();
+    }
+
+    public void resolve(List<BStatement> statements) {
+        for (BStatement statement : statements) this.resolve(statement);
+    }
+
+    ///////////////////////////////////////////////////
+    // STATEMENTS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitIf(BStatement.If statement) {
+        this.resolve(statement.getExpression());
+        this.resolve(statement.getThenBranch());
+        this.resolve(statement.getElseBranch());
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(BStatement.While statement) {
+        this.resolve(statement.getCondition());
+        this.resolve(statement.getBody());
+        return null;
+    }
+
+    @Override
+    public Void visitFor(BStatement.For statement) {
+        Map<String, Integer> scope = new HashMap<>();
+        this.scopes.add(scope);
+        try {
+            this.resolve(statement.getInitializer());
+
+            Induction induction = null;
+            if (statement.getInitializer() instanceof BStatement.Let) {
+                induction = new Induction(scope, ((BStatement.Let)statement.getInitializer()).getSlot());
+                this.inductions.add(induction);
+            }
+
+            int functions = this.functions;
+            try {
+                this.resolve(statement.getCondition());
+                this.resolve(statement.getBody());
+                this.resolve(statement.getIncrement());
+            } finally {
+                if (induction != null) this.inductions.remove(this.inductions.size() - 1);
+            }
+
+            if (induction != null && this.functions == functions) this.counting(statement, induction);
+        } finally {
+            this.scopes.remove(this.scopes.size() - 1);
+        }
+
+        statement.setSlotCount(scope.size());
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(BStatement.Block statement) {
+        Map<String, Integer> scope = new HashMap<>();
+        this.scopes.add(scope);
+        int functions = this.functions;
+        try {
+            this.resolve(statement.getStatements());
+        } finally {
+            this.scopes.remove(this.scopes.size() - 1);
+        }
+
+        statement.setSlotCount(scope.size());
+        statement.setReusable(this.functions == functions);
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(BStatement.Expression statement) {
+        this.resolve(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(BStatement.Let statement) {
+        // the initializer can still see the variable it shadows
+        this.resolve(statement.getInitializer());
+        if (this.scopes.isEmpty()) return null;
+
+        Map<String, Integer> scope = this.scopes.get(this.scopes.size() - 1);
+        Integer slot = scope.computeIfAbsent(statement.getName().getLexeme(), name -> scope.size());
+        statement.setSlot(slot);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(BStatement.Print statement) {
+        this.resolve(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(BStatement.Function statement) {
+        this.functions++;
+
+        // declared before the body is resolved, so the function can call itself
+        if (!this.scopes.isEmpty()) {
+            Map<String, Integer> enclosing = this.scopes.get(this.scopes.size() - 1);
+            statement.setSlot(enclosing.computeIfAbsent(statement.getName().getLexeme(), name -> enclosing.size()));
+        }
+
+        Map<String, Integer> scope = new HashMap<>();
+        for (BToken parameter : statement.getParameters()) scope.putIfAbsent(parameter.getLexeme(), scope.size());
+        this.scopes.add(scope);
+        try {
+            this.resolve(statement.getBody());
+        } finally {
+            this.scopes.remove(this.scopes.size() - 1);
+        }
+
+        statement.setSlotCount(Math.max(scope.size(), statement.getParameters().size()));
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(BStatement.Return statement) {
+        this.resolve(statement.getValue());
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // EXPRESSIONS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitBinary(BExpression.Binary expression) {
+        this.resolve(expression.getLeft());
+        this.resolve(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(BExpression.Grouping expression) {
+        this.resolve(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(BExpression.Literal expression) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(BExpression.Logical expression) {
+        this.resolve(expression.getLeft());
+        this.resolve(expression.getRight());
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(BExpression.Unary expression) {
+        this.resolve(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLetExpression(BExpression.Let expression) {
+        int[] location = this.lookup(expression.getName());
+        if (location != null) {
+            expression.resolve(location[0], location[1]);
+            Induction induction = this.induction(location);
+            if (induction != null) induction.reads++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(BExpression.Assign expression) {
+        this.resolve(expression.getValue());
+
+        int[] location = this.lookup(expression.getName());
+        if (location != null) {
+            expression.resolve(location[0], location[1]);
+            Induction induction = this.induction(location);
+            if (induction != null) induction.writes++;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCall(BExpression.Call expression) {
+        this.resolve(expression.getCallee());
+        for (BExpression argument : expression.getArguments()) this.resolve(argument);
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // UTILITY
+    ///////////////////////////////////////////////////
+
+    /**
+     * Mark a for loop as a counting loop if it has the shape
+     * {@code for (let i = start; i < bound; i = i + step)}, where the
+     * comparison can be any of {@code < <= > >=}, the step is a number
+     * literal that can also be subtracted, and nothing but the increment
+     * assigns to the counter.
+     */
+    private void counting(BStatement.For statement, Induction induction) {
+        if (!(statement.getCondition() instanceof BExpression.Binary) || !(statement.getIncrement() instanceof BExpression.Assign)) return;
+
+        BExpression.Binary condition = (BExpression.Binary)statement.getCondition();
+        switch (condition.getOperator().getType()) {
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: break;
+            default: return;
+        }
+        if (!this.isCounter(condition.getLeft(), induction)) return;
+
+        BExpression.Assign increment = (BExpression.Assign)statement.getIncrement();
+        if (increment.getDepth() != 0 || increment.getSlot() != induction.slot || !(increment.getValue() instanceof BExpression.Binary)) return;
+
+        BExpression.Binary value = (BExpression.Binary)increment.getValue();
+        BToken.Type operator = value.getOperator().getType();
+        if (operator != BToken.Type.PLUS && operator != BToken.Type.MINUS) return;
+        if (!this.isCounter(value.getLeft(), induction) || !(value.getRight() instanceof BExpression.Literal)) return;
+
+        Object step = ((BExpression.Literal)value.getRight()).getValue();
+        if (!(step instanceof Double) || induction.writes != 1) return;
+
+        statement.setCounter(induction.slot);
+        statement.setStep(operator == BToken.Type.PLUS ? (double)step : -(double)step);
+        // the condition and the increment read it once each
+        statement.setCounterRead(induction.reads > 2);
+    }
+
+    private boolean isCounter(BExpression expression, Induction induction) {
+        if (!(expression instanceof BExpression.Let)) return false;
+        BExpression.Let variable = (BExpression.Let)expression;
+        return variable.getDepth() == 0 && variable.getSlot() == induction.slot;
+    }
+
+    /**
+     * @return the induction variable at a resolved location, or null if it is not one
+     */
+    private Induction induction(int[] location) {
+        Map<String, Integer> scope = this.scopes.get(this.scopes.size() - 1 - location[0]);
+        for (int i = this.inductions.size() - 1; i >= 0; i--) {
+            Induction induction = this.inductions.get(i);
+            if (induction.scope == scope && induction.slot == location[1]) return induction;
+        }
+        return null;
+    }
+
+    private void resolve(BStatement statement) {
+        if (statement != null) statement.accept(this);
+    }
+
+    private void resolve(BExpression expression) {
+        if (expression != null) expression.accept(this);
+    }
+
+    /**
+     * Find the innermost scope that declares a name
+     *
+     * @param name the {@link BToken} of the variable
+     * @return the depth and slot, or null if it is a global
+     */
+    private int[] lookup(BToken name) {
+        for (int i = this.scopes.size() - 1; i >= 0; i--) {
+            Integer slot = this.scopes.get(i).get(name.getLexeme());
+            if (slot != null) return new int[] { this.scopes.size() - 1 - i, slot };
+        }
+        return null;
+    }
+
+    private static class Induction {
+
+        private final Map<String, Integer> scope;
+        private final int slot;
+        private int reads;
+        private int writes;
+
+        Induction(Map<String, Integer> scope, int slot) {
+            this.scope = scope;
+            this.slot = slot;
+        }
+
+    }
+
+}
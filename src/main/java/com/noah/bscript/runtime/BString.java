@@ -0,0 +1,93 @@
+package com.noah.bscript.runtime;
+
+/**
+ * A string made by concatenation. Strings made by appending to the same
+ * string share one builder, and appending to the longest of them writes into
+ * the builder instead of copying it, so building a string out of many
+ * pieces takes linear time. The {@link String} is only created once it is
+ * needed, which is when it is printed, compared or handed back to Java.
+ */
+public final class BString implements CharSequence {
+
+    private final StringBuilder builder;
+    private final int length;
+    private String value;
+
+    private BString(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    /**
+     * Concatenate two values, each a string or a number
+     *
+     * @param left a {@link String}, {@link BString} or {@link Double}
+     * @param right a {@link String}, {@link BString} or {@link Double}
+     * @return the concatenated string
+     */
+    public static BString concat(Object left, Object right) {
+        if (left instanceof BString) {
+            BString string = (BString)left;
+            synchronized (string.builder) {
+                // nothing was appended after this string yet, so it can be extended in place
+                if (string.builder.length() == string.length) {
+                    append(string.builder, right);
+                    return new BString(string.builder);
+                }
+            }
+        }
+
+        StringBuilder builder = new StringBuilder(length(left) + length(right) + 16);
+        append(builder, left);
+        append(builder, right);
+        return new BString(builder);
+    }
+
+    private static void append(StringBuilder builder, Object value) {
+        // numbers are formatted straight into the builder
+        if (value instanceof Double) builder.append((double)value);
+        else if (value instanceof BString) builder.append(value.toString());
+        else builder.append((String)value);
+    }
+
+    private static int length(Object value) {
+        return value instanceof CharSequence ? ((CharSequence)value).length() : 24;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= this.length) throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+        return this.toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return this.toString().subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof BString && this.toString().equals(object.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (this.value == null) {
+            synchronized (this.builder) {
+                this.value = this.builder.substring(0, this.length);
+            }
+        }
+        return this.value;
+    }
+
+}
@@ -2,6 +2,9 @@ package com.noah.bscript.tools;
 
 import com.noah.bscript.lang.BExpression;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class BAstPrinter implements BExpression.Visitor<String> {
 
     public String print(BExpression expression) {
@@ -44,6 +47,14 @@ public class BAstPrinter implements BExpression.Visitor<String> {
         return this.parenthesize("assign", expression);
     }
 
+    @Override
+    public String visitCall(BExpression.Call expression) {
+        List<BExpression> operands = new ArrayList<>();
+        operands.add(expression.getCallee());
+        operands.addAll(expression.getArguments());
+        return this.parenthesize("call", operands.toArray(new BExpression[0]));
+    }
+
     private String parenthesize(String name, BExpression... expressions) {
         StringBuilder builder = new StringBuilder();
 
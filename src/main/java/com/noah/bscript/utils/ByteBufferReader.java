@@ -0,0 +1,69 @@
+package com.noah.bscript.utils;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Reader} that decodes UTF-8 straight out of a {@link ByteBuffer},
+ * such as a memory mapped file, without copying the bytes onto the heap first.
+ */
+public class ByteBufferReader extends Reader {
+
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    // a code point that was decoded but did not fit, see read
+    private final CharBuffer spare = CharBuffer.allocate(2).flip();
+    private boolean flushed;
+
+    public ByteBufferReader(ByteBuffer bytes) {
+        this.bytes = bytes;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Reads at least one character unless the end was reached. A code point
+     * outside the BMP needs two chars, so when there is room for only one it
+     * is decoded into a spare buffer and its low surrogate is handed out by
+     * the next read.
+     */
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (length == 0) return 0;
+
+        int read = 0;
+        while (read < length && this.spare.hasRemaining()) buffer[offset + read++] = this.spare.get();
+        if (read == length) return read;
+
+        CharBuffer out = CharBuffer.wrap(buffer, offset + read, length - read);
+        this.decode(out);
+        read = out.position() - offset;
+
+        if (read == 0 && !this.flushed) {
+            this.spare.clear();
+            this.decode(this.spare);
+            this.spare.flip();
+            if (this.spare.hasRemaining()) buffer[offset + read++] = this.spare.get();
+        }
+
+        return read == 0 && this.flushed ? -1 : read;
+    }
+
+    private void decode(CharBuffer out) {
+        if (this.flushed) return;
+
+        this.decoder.decode(this.bytes, out, true);
+        if (!this.bytes.hasRemaining() && out.hasRemaining()) {
+            this.flushed = this.decoder.flush(out).isUnderflow();
+        }
+    }
+
+    @Override
+    public void close() {}
+
+}
@@ -0,0 +1,21 @@
+package com.noah.bscript.vm;
+
+import com.noah.bscript.lang.BToken;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A compiled program: the bytecode, its constant pool and the token each
+ * instruction came from (used for error reporting).
+ */
+@AllArgsConstructor
+@Getter
+public class BChunk {
+
+    private final byte[] code;
+    private final Object[] constants;
+    private final BToken[] tokens;
+    private final int maxStack;
+    private final int maxLocals;
+
+}
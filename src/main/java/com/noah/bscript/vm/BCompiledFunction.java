@@ -0,0 +1,44 @@
+package com.noah.bscript.vm;
+
+import com.noah.bscript.lang.BToken;
+import lombok.Getter;
+
+/**
+ * A function declared by a script, compiled into the code of a
+ * {@link BChunk}. The compiler only compiles functions that use their own
+ * locals and globals, so a function needs no closure and can be a constant
+ * of the chunk it was compiled into.
+ */
+@Getter
+public class BCompiledFunction {
+
+    private final BToken name;
+    private final int arity;
+
+    // the offset of the first instruction of the body
+    private final int entry;
+
+    private final int maxStack;
+    private final int maxLocals;
+
+    // the chunk the body was compiled into, set once the chunk is done
+    private BChunk chunk;
+
+    BCompiledFunction(BToken name, int arity, int entry, int maxStack, int maxLocals) {
+        this.name = name;
+        this.arity = arity;
+        this.entry = entry;
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+    }
+
+    void link(BChunk chunk) {
+        this.chunk = chunk;
+    }
+
+    @Override
+    public String toString() {
+        return "<def " + this.name.getLexeme() + ">";
+    }
+
+}
@@ -0,0 +1,483 @@
+package com.noah.bscript.vm;
+
+import com.noah.bscript.exceptions.BCompileException;
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles resolved statements into a {@link BChunk}. Locals are laid out in
+ * one flat array: every block gets a base offset and the resolver's
+ * (depth, slot) pairs are translated into absolute slots. The slots of a
+ * function are relative to the frame of its call instead, which is why a
+ * function may not use the locals of the scopes around it.
+ */
+public class BCompiler implements BExpression.Visitor<Void>, BStatement.Visitor<Void> {
+
+    private static final int MAX_OPERAND = 0xFFFF;
+
+    private byte[] code;
+    private int length;
+    private final List<BToken> tokens;
+    private final List<Object> constants;
+    private final Map<Object, Integer> constantIndexes;
+
+    private final List<BCompiledFunction> functions;
+
+    private List<Integer> bases;
+    private int nextLocal;
+    private int maxLocals;
+
+    private int stack;
+    private int maxStack;
+
+    public BCompiler() {
+        this.code = new byte[64];
+        this.tokens = new ArrayList<>();
+        this.constants = new ArrayList<>();
+        this.constantIndexes = new HashMap<>();
+        this.functions = new ArrayList<>();
+        this.bases = new ArrayList<>();
+    }
+
+    /**
+     * Compile the statements of a script
+     *
+     * @param statements the resolved statements
+     * @return the compiled {@link BChunk}
+     */
+    public BChunk compile(List<BStatement> statements) {
+        for (BStatement statement : statements) this.compile(statement);
+        this.emit(BOpCode.HALT, null);
+
+        BChunk chunk = new BChunk(
+                Arrays.copyOf(this.code, this.length),
+                this.constants.toArray(),
+                this.tokens.toArray(new BToken[0]),
+                this.maxStack,
+                this.maxLocals
+        );
+        for (BCompiledFunction function : this.functions) function.link(chunk);
+        return chunk;
+    }
+
+    ///////////////////////////////////////////////////
+    // STATEMENTS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitIf(BStatement.If statement) {
+        this.compile(statement.getExpression());
+        int elseJump = this.emitJump(BOpCode.JUMP_IF_FALSE);
+        this.emit(BOpCode.POP, null);
+        this.compile(statement.getThenBranch());
+
+        int endJump = this.emitJump(BOpCode.JUMP);
+        this.patchJump(elseJump);
+        this.stack++; // the condition is still there on this path
+        this.emit(BOpCode.POP, null);
+        if (statement.getElseBranch() != null) this.compile(statement.getElseBranch());
+        this.patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(BStatement.While statement) {
+        int start = this.length;
+        this.compile(statement.getCondition());
+
+        int exitJump = this.emitJump(BOpCode.JUMP_IF_FALSE);
+        this.emit(BOpCode.POP, null);
+        this.emit(BOpCode.FUEL, null);
+        this.compile(statement.getBody());
+        this.emitLoop(start);
+
+        this.patchJump(exitJump);
+        this.stack++; // the condition is still there on this path
+        this.emit(BOpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(BStatement.For statement) {
+        int base = this.enterScope(statement.getSlotCount());
+        if (statement.getInitializer() != null) this.compile(statement.getInitializer());
+
+        int start = this.length;
+        this.compile(statement.getCondition());
+
+        int exitJump = this.emitJump(BOpCode.JUMP_IF_FALSE);
+        this.emit(BOpCode.POP, null);
+        this.emit(BOpCode.FUEL, null);
+        this.compile(statement.getBody());
+        if (statement.getIncrement() != null) {
+            this.compile(statement.getIncrement());
+            this.emit(BOpCode.POP, null);
+        }
+        this.emitLoop(start);
+
+        this.patchJump(exitJump);
+        this.stack++; // the condition is still there on this path
+        this.emit(BOpCode.POP, null);
+        this.exitScope(base);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(BStatement.Block statement) {
+        this.emit(BOpCode.FUEL, null);
+        int base = this.enterScope(statement.getSlotCount());
+        for (BStatement inner : statement.getStatements()) this.compile(inner);
+        this.exitScope(base);
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(BStatement.Expression statement) {
+        this.compile(statement.getExpression());
+        this.emit(BOpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStatement(BStatement.Let statement) {
+        if (statement.getInitializer() != null) this.compile(statement.getInitializer());
+        else this.emit(BOpCode.NULL, null);
+
+        if (statement.getSlot() < 0) {
+            this.emit(BOpCode.DEFINE_GLOBAL, statement.getName(), this.constant(statement.getName()));
+            return null;
+        }
+
+        this.emit(BOpCode.SET_LOCAL, statement.getName(), this.local(0, statement.getSlot()));
+        this.emit(BOpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitPrint(BStatement.Print statement) {
+        this.compile(statement.getExpression());
+        this.emit(BOpCode.PRINT, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFunction(BStatement.Function statement) {
+        int skipJump = this.emitJump(BOpCode.JUMP);
+        BCompiledFunction function = this.function(statement);
+        this.patchJump(skipJump);
+
+        this.emit(BOpCode.CONSTANT, null, this.constant(function));
+        if (statement.getSlot() < 0) {
+            this.emit(BOpCode.DEFINE_GLOBAL, statement.getName(), this.constant(statement.getName()));
+            return null;
+        }
+
+        this.emit(BOpCode.SET_LOCAL, statement.getName(), this.local(0, statement.getSlot()));
+        this.emit(BOpCode.POP, null);
+        return null;
+    }
+
+    @Override
+    public Void visitReturn(BStatement.Return statement) {
+        BExpression value = statement.getValue();
+        if (value instanceof BExpression.Call) {
+            BExpression.Call call = (BExpression.Call)value;
+            this.compile(call.getCallee());
+            for (BExpression argument : call.getArguments()) this.compile(argument);
+
+            this.emit(BOpCode.TAIL_CALL, call.getParen(), this.constant(call.getSite()));
+            this.stack -= call.getArguments().size() + 1;
+            return null;
+        }
+
+        if (value != null) this.compile(value);
+        else this.emit(BOpCode.NULL, null);
+        this.emit(BOpCode.RETURN, statement.getKeyword());
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // EXPRESSIONS
+    ///////////////////////////////////////////////////
+
+    @Override
+    public Void visitAssign(BExpression.Assign expression) {
+        this.compile(expression.getValue());
+        if (expression.getDepth() < 0) this.emit(BOpCode.SET_GLOBAL, expression.getName(), this.constant(expression.getName()));
+        else this.emit(BOpCode.SET_LOCAL, expression.getName(), this.local(expression.getDepth(), expression.getSlot()));
+        return null;
+    }
+
+    @Override
+    public Void visitLetExpression(BExpression.Let expression) {
+        if (expression.getDepth() < 0) this.emit(BOpCode.GET_GLOBAL, expression.getName(), this.constant(expression.getName()));
+        else this.emit(BOpCode.GET_LOCAL, expression.getName(), this.local(expression.getDepth(), expression.getSlot()));
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(BExpression.Binary expression) {
+        this.compile(expression.getLeft());
+        this.compile(expression.getRight());
+
+        BToken operator = expression.getOperator();
+        switch (operator.getType()) {
+            case GREATER: this.emit(BOpCode.GREATER, operator); break;
+            case GREATER_EQUAL: this.emit(BOpCode.GREATER_EQUAL, operator); break;
+            case LESS: this.emit(BOpCode.LESS, operator); break;
+            case LESS_EQUAL: this.emit(BOpCode.LESS_EQUAL, operator); break;
+            case MINUS: this.emit(BOpCode.SUBTRACT, operator); break;
+            case SLASH: this.emit(BOpCode.DIVIDE, operator); break;
+            case STAR: this.emit(BOpCode.MULTIPLY, operator); break;
+            case NOT_EQUAL: this.emit(BOpCode.NOT_EQUAL, operator); break;
+            case EQUAL_EQUAL: this.emit(BOpCode.EQUAL, operator); break;
+            case PLUS: this.emit(BOpCode.ADD, operator); break;
+            default: throw new BCompileException("Unsupported binary operator: " + operator.getLexeme());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGrouping(BExpression.Grouping expression) {
+        this.compile(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(BExpression.Literal expression) {
+        Object value = expression.getValue();
+        if (value == null) this.emit(BOpCode.NULL, null);
+        else if (Boolean.TRUE.equals(value)) this.emit(BOpCode.TRUE, null);
+        else if (Boolean.FALSE.equals(value)) this.emit(BOpCode.FALSE, null);
+        else this.emit(BOpCode.CONSTANT, null, this.constant(value));
+        return null;
+    }
+
+    @Override
+    public Void visitLogical(BExpression.Logical expression) {
+        this.compile(expression.getLeft());
+
+        if (expression.getOperator().getType() == BToken.Type.OR) {
+            int elseJump = this.emitJump(BOpCode.JUMP_IF_FALSE);
+            int endJump = this.emitJump(BOpCode.JUMP);
+            this.patchJump(elseJump);
+            this.emit(BOpCode.POP, null);
+            this.compile(expression.getRight());
+            this.patchJump(endJump);
+        } else {
+            int endJump = this.emitJump(BOpCode.JUMP_IF_FALSE);
+            this.emit(BOpCode.POP, null);
+            this.compile(expression.getRight());
+            this.patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(BExpression.Unary expression) {
+        this.compile(expression.getExpression());
+
+        BToken operator = expression.getOperator();
+        switch (operator.getType()) {
+            case MINUS: this.emit(BOpCode.NEGATE, operator); break;
+            case NOT: this.emit(BOpCode.NOT, operator); break;
+            default: throw new BCompileException("Unsupported unary operator: " + operator.getLexeme());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCall(BExpression.Call expression) {
+        this.compile(expression.getCallee());
+        for (BExpression argument : expression.getArguments()) this.compile(argument);
+
+        this.emit(BOpCode.CALL, expression.getParen(), this.constant(expression.getSite()));
+        this.stack -= expression.getArguments().size(); // the result takes the place of the callee
+        return null;
+    }
+
+    ///////////////////////////////////////////////////
+    // UTILITY
+    ///////////////////////////////////////////////////
+
+    private void compile(BStatement statement) {
+        if (statement == null) throw new BCompileException("Cannot compile a script that failed to parse.");
+        statement.accept(this);
+    }
+
+    private void compile(BExpression expression) {
+        expression.accept(this);
+    }
+
+    /**
+     * Compile the body of a function where the code is at now. The body gets
+     * a scope of its own that starts at slot 0 of the frame of a call, and
+     * its own stack and local sizes.
+     */
+    private BCompiledFunction function(BStatement.Function statement) {
+        List<Integer> bases = this.bases;
+        int nextLocal = this.nextLocal;
+        int maxLocals = this.maxLocals;
+        int stack = this.stack;
+        int maxStack = this.maxStack;
+
+        this.bases = new ArrayList<>();
+        this.nextLocal = 0;
+        this.maxLocals = 0;
+        this.stack = 0;
+        this.maxStack = 0;
+
+        int entry = this.length;
+        this.enterScope(statement.getSlotCount());
+        for (BStatement inner : statement.getBody()) this.compile(inner);
+        this.emit(BOpCode.NULL, null);
+        this.emit(BOpCode.RETURN, null);
+
+        BCompiledFunction function = new BCompiledFunction(statement.getName(), statement.getParameters().size(), entry, this.maxStack, this.maxLocals);
+        this.functions.add(function);
+
+        this.bases = bases;
+        this.nextLocal = nextLocal;
+        this.maxLocals = maxLocals;
+        this.stack = stack;
+        this.maxStack = maxStack;
+        return function;
+    }
+
+    private void emit(byte opCode, BToken token) {
+        this.write(opCode, token);
+        this.adjustStack(opCode);
+    }
+
+    private void emit(byte opCode, BToken token, int operand) {
+        this.emit(opCode, token);
+        this.writeOperand(operand);
+    }
+
+    private void writeOperand(int operand) {
+        if (operand > MAX_OPERAND) throw new BCompileException("Operand out of range: " + operand);
+        this.write((byte)((operand >> 8) & 0xFF), null);
+        this.write((byte)(operand & 0xFF), null);
+    }
+
+    private void write(byte value, BToken token) {
+        if (this.length == this.code.length) this.code = Arrays.copyOf(this.code, this.length * 2);
+        this.code[this.length++] = value;
+        this.tokens.add(token);
+    }
+
+    private int emitJump(byte opCode) {
+        this.emit(opCode, null, 0);
+        return this.length - 2;
+    }
+
+    private void patchJump(int operandOffset) {
+        int jump = this.length - operandOffset - 2;
+        if (jump > MAX_OPERAND) throw new BCompileException("Too much code to jump over.");
+
+        this.code[operandOffset] = (byte)((jump >> 8) & 0xFF);
+        this.code[operandOffset + 1] = (byte)(jump & 0xFF);
+    }
+
+    private void emitLoop(int start) {
+        this.emit(BOpCode.LOOP, null);
+        int offset = this.length - start + 2;
+        if (offset > MAX_OPERAND) throw new BCompileException("Loop body too large.");
+        this.writeOperand(offset);
+    }
+
+    private int constant(Object value) {
+        // tokens are compared by identity, everything else by value
+        Object key = value instanceof BToken ? new IdentityKey(value) : value;
+        Integer index = this.constantIndexes.get(key);
+        if (index != null) return index;
+
+        index = this.constants.size();
+        if (index > MAX_OPERAND) throw new BCompileException("Too many constants.");
+        this.constants.add(value);
+        this.constantIndexes.put(key, index);
+        return index;
+    }
+
+    /**
+     * @param slotCount the amount of locals the scope declares
+     * @return the base of the scope, to pass to {@link #exitScope(int)}
+     */
+    private int enterScope(int slotCount) {
+        int base = this.nextLocal;
+        this.bases.add(base);
+        this.nextLocal += slotCount;
+        this.maxLocals = Math.max(this.maxLocals, this.nextLocal);
+        if (this.nextLocal > MAX_OPERAND) throw new BCompileException("Too many local variables.");
+        return base;
+    }
+
+    private void exitScope(int base) {
+        this.bases.remove(this.bases.size() - 1);
+        this.nextLocal = base;
+    }
+
+    private int local(int depth, int slot) {
+        int scope = this.bases.size() - 1 - depth;
+        if (scope < 0) throw new BCompileException("Functions that use the locals around them are not supported by the virtual machine.");
+        return this.bases.get(scope) + slot;
+    }
+
+    private void adjustStack(byte opCode) {
+        switch (opCode) {
+            case BOpCode.CONSTANT:
+            case BOpCode.NULL:
+            case BOpCode.TRUE:
+            case BOpCode.FALSE:
+            case BOpCode.GET_GLOBAL:
+            case BOpCode.GET_LOCAL:
+                this.stack++;
+                break;
+            case BOpCode.POP:
+            case BOpCode.RETURN:
+            case BOpCode.DEFINE_GLOBAL:
+            case BOpCode.PRINT:
+            case BOpCode.EQUAL:
+            case BOpCode.NOT_EQUAL:
+            case BOpCode.GREATER:
+            case BOpCode.GREATER_EQUAL:
+            case BOpCode.LESS:
+            case BOpCode.LESS_EQUAL:
+            case BOpCode.ADD:
+            case BOpCode.SUBTRACT:
+            case BOpCode.MULTIPLY:
+            case BOpCode.DIVIDE:
+                this.stack--;
+                break;
+        }
+        this.maxStack = Math.max(this.maxStack, this.stack);
+    }
+
+    private static class IdentityKey {
+
+        private final Object value;
+
+        IdentityKey(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey && ((IdentityKey)other).value == this.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.value);
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.noah.bscript.vm;
+
+/**
+ * The instruction set of the {@link BVirtualMachine}. Every instruction is a
+ * single byte, optionally followed by a two byte operand.
+ */
+public final class BOpCode {
+
+    private BOpCode() {}
+
+    // STACK
+    public static final byte CONSTANT = 0;      // [index] push a constant from the pool
+    public static final byte NULL = 1;
+    public static final byte TRUE = 2;
+    public static final byte FALSE = 3;
+    public static final byte POP = 4;
+
+    // VARIABLES
+    public static final byte GET_GLOBAL = 5;    // [index] name token in the constant pool
+    public static final byte SET_GLOBAL = 6;    // [index]
+    public static final byte DEFINE_GLOBAL = 7; // [index]
+    public static final byte GET_LOCAL = 8;     // [slot]
+    public static final byte SET_LOCAL = 9;     // [slot]
+
+    // OPERATORS
+    public static final byte EQUAL = 10;
+    public static final byte NOT_EQUAL = 11;
+    public static final byte GREATER = 12;
+    public static final byte GREATER_EQUAL = 13;
+    public static final byte LESS = 14;
+    public static final byte LESS_EQUAL = 15;
+    public static final byte ADD = 16;
+    public static final byte SUBTRACT = 17;
+    public static final byte MULTIPLY = 18;
+    public static final byte DIVIDE = 19;
+    public static final byte NOT = 20;
+    public static final byte NEGATE = 21;
+
+    // CONTROL
+    public static final byte PRINT = 22;
+    public static final byte JUMP = 23;          // [offset] forwards
+    public static final byte JUMP_IF_FALSE = 24; // [offset] forwards, leaves the condition on the stack
+    public static final byte LOOP = 25;          // [offset] backwards
+    public static final byte HALT = 26;
+    public static final byte CALL = 27;          // [index] call site in the constant pool, pops the arguments and the callee
+    public static final byte FUEL = 28;          // uses one unit of fuel, pauses the machine if there is none left
+    public static final byte RETURN = 29;        // pops the result and returns it to the caller
+    public static final byte TAIL_CALL = 30;     // [index] like CALL followed by RETURN, reuses the frame for a compiled function
+
+    /**
+     * @param opCode the instruction
+     * @return the amount of operand bytes following the instruction
+     */
+    public static int operandLength(byte opCode) {
+        switch (opCode) {
+            case CONSTANT:
+            case GET_GLOBAL:
+            case SET_GLOBAL:
+            case DEFINE_GLOBAL:
+            case GET_LOCAL:
+            case SET_LOCAL:
+            case JUMP:
+            case JUMP_IF_FALSE:
+            case LOOP:
+            case CALL:
+            case TAIL_CALL:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+}
@@ -0,0 +1,283 @@
+package com.noah.bscript.vm;
+
+import com.noah.bscript.BContext;
+import com.noah.bscript.exceptions.BRuntimeException;
+import com.noah.bscript.host.BCallSite;
+import com.noah.bscript.lang.BToken;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.runtime.BEnvironment;
+import com.noah.bscript.runtime.BInterpreter;
+import com.noah.bscript.runtime.BOperations;
+
+import java.util.Arrays;
+
+/**
+ * A stack based virtual machine that executes a {@link BChunk}. Calls of
+ * compiled functions run on the same stack and locals arrays, every call
+ * gets a window of the locals that starts at its frame pointer.
+ */
+public class BVirtualMachine {
+
+    private final BContext context;
+    private final BChunk chunk;
+    private final BEnvironment globals;
+    private final BOutputSink out;
+
+    private Object[] stack;
+    private Object[] locals;
+    private int pc;
+    private int sp;
+
+    // the function that is running, null for the top level of the chunk
+    private BCompiledFunction function;
+    private int fp;
+    private int base;
+
+    // the callers of the running function, innermost last
+    private int frames;
+    private BCompiledFunction[] callers = new BCompiledFunction[8];
+    private int[] returns = new int[8];
+    private int[] pointers = new int[8];
+    private int[] bases = new int[8];
+
+    public BVirtualMachine(BContext context, BChunk chunk) {
+        this.context = context;
+        this.chunk = chunk;
+        this.globals = context.getGlobals();
+        this.out = context.getOut();
+        this.stack = new Object[chunk.getMaxStack()];
+        this.locals = new Object[chunk.getMaxLocals()];
+    }
+
+    /**
+     * Run until the chunk halts or the fuel of the context runs out. Fuel is
+     * used where the compiler emitted {@link BOpCode#FUEL} and by every call
+     * of a compiled function, which is where the interpreter uses it as well.
+     * A machine that ran out of fuel is paused, and continues where it left
+     * off when it is run again.
+     *
+     * @return true if the chunk halted, false if the machine was paused
+     * @throws com.noah.bscript.exceptions.BRuntimeException if the script fails
+     */
+    public boolean interpret() {
+        BChunk chunk = this.running();
+        byte[] code = chunk.getCode();
+        Object[] constants = chunk.getConstants();
+        BToken[] tokens = chunk.getTokens();
+        Object[] stack = this.stack;
+        Object[] locals = this.locals;
+
+        long fuel = this.context.getFuel();
+        int pc = this.pc;
+        int sp = this.sp;
+        int fp = this.fp;
+        for (;;) {
+            int at = pc;
+            switch (code[pc++]) {
+                case BOpCode.CONSTANT:
+                    stack[sp++] = constants[this.operand(code, pc)];
+                    pc += 2;
+                    break;
+                case BOpCode.NULL: stack[sp++] = null; break;
+                case BOpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                case BOpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                case BOpCode.POP: sp--; break;
+
+                case BOpCode.GET_GLOBAL:
+                    stack[sp++] = this.globals.get((BToken)constants[this.operand(code, pc)]);
+                    pc += 2;
+                    break;
+                case BOpCode.SET_GLOBAL:
+                    this.globals.redefine((BToken)constants[this.operand(code, pc)], stack[sp - 1]);
+                    pc += 2;
+                    break;
+                case BOpCode.DEFINE_GLOBAL:
+                    this.globals.define((BToken)constants[this.operand(code, pc)], stack[--sp]);
+                    pc += 2;
+                    break;
+                case BOpCode.GET_LOCAL:
+                    stack[sp++] = locals[fp + this.operand(code, pc)];
+                    pc += 2;
+                    break;
+                case BOpCode.SET_LOCAL:
+                    locals[fp + this.operand(code, pc)] = stack[sp - 1];
+                    pc += 2;
+                    break;
+
+                case BOpCode.EQUAL: sp--; stack[sp - 1] = BOperations.isEqual(stack[sp - 1], stack[sp]); break;
+                case BOpCode.NOT_EQUAL: sp--; stack[sp - 1] = !BOperations.isEqual(stack[sp - 1], stack[sp]); break;
+                case BOpCode.GREATER: sp--; stack[sp - 1] = BOperations.greater(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.GREATER_EQUAL: sp--; stack[sp - 1] = BOperations.greaterEqual(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.LESS: sp--; stack[sp - 1] = BOperations.less(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.LESS_EQUAL: sp--; stack[sp - 1] = BOperations.lessEqual(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.ADD: sp--; stack[sp - 1] = BOperations.add(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.SUBTRACT: sp--; stack[sp - 1] = BOperations.subtract(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.MULTIPLY: sp--; stack[sp - 1] = BOperations.multiply(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.DIVIDE: sp--; stack[sp - 1] = BOperations.divide(tokens[at], stack[sp - 1], stack[sp]); break;
+                case BOpCode.NOT: stack[sp - 1] = !BOperations.isTruthy(stack[sp - 1]); break;
+                case BOpCode.NEGATE: stack[sp - 1] = BOperations.negate(tokens[at], stack[sp - 1]); break;
+
+                case BOpCode.PRINT:
+                    this.out.print(stack[--sp]);
+                    break;
+                case BOpCode.JUMP:
+                    pc += 2 + this.operand(code, pc);
+                    break;
+                case BOpCode.JUMP_IF_FALSE:
+                    if (BOperations.isTruthy(stack[sp - 1])) pc += 2;
+                    else pc += 2 + this.operand(code, pc);
+                    break;
+                case BOpCode.LOOP:
+                    pc += 2;
+                    pc -= this.operand(code, pc - 2);
+                    break;
+                case BOpCode.FUEL:
+                    if (--fuel < 0) {
+                        this.pause(at, sp, fp, 0);
+                        return false;
+                    }
+                    break;
+                case BOpCode.CALL:
+                case BOpCode.TAIL_CALL: {
+                    BCallSite site = (BCallSite)constants[this.operand(code, pc)];
+                    int arity = site.getArity();
+                    int callee = sp - arity - 1;
+                    if (!(stack[callee] instanceof BCompiledFunction)) {
+                        Object[] arguments = new Object[arity];
+                        System.arraycopy(stack, callee + 1, arguments, 0, arity);
+                        Object result = site.call(stack[callee], arguments);
+                        if (code[at] == BOpCode.CALL) {
+                            stack[callee] = result;
+                            sp = callee + 1;
+                            pc += 2;
+                            break;
+                        }
+
+                        // a tail call of a host function returns its result right away
+                        pc = this.leave(result);
+                    } else {
+                        BCompiledFunction function = (BCompiledFunction)stack[callee];
+                        if (function.getArity() != arity)
+                            throw new BRuntimeException(tokens[at], "Expected " + function.getArity() + " arguments but got " + arity + ".");
+                        if (--fuel < 0) {
+                            this.pause(at, sp, fp, 0);
+                            return false;
+                        }
+
+                        // a tail call reuses the frame of the running function, so the frames do not grow
+                        if (code[at] == BOpCode.CALL) this.enter(function, pc + 2, callee, fp, tokens[at]);
+                        else this.reuse(function, fp);
+                        stack = this.stack;
+                        locals = this.locals;
+                        System.arraycopy(stack, callee + 1, locals, this.fp, arity);
+                        this.sp = this.base;
+                        pc = function.getEntry();
+                    }
+
+                    sp = this.sp;
+                    fp = this.fp;
+                    chunk = this.running();
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    tokens = chunk.getTokens();
+                    break;
+                }
+                case BOpCode.RETURN:
+                    pc = this.leave(stack[--sp]);
+                    sp = this.sp;
+                    fp = this.fp;
+                    chunk = this.running();
+                    code = chunk.getCode();
+                    constants = chunk.getConstants();
+                    tokens = chunk.getTokens();
+                    break;
+                case BOpCode.HALT:
+                    this.pause(at, sp, fp, fuel);
+                    return true;
+                default:
+                    throw new IllegalStateException("Unknown instruction " + code[at] + " at " + at);
+            }
+        }
+    }
+
+    /**
+     * Push a frame for a call of a compiled function, the caller copies the
+     * arguments into its locals
+     *
+     * @param function the {@link BCompiledFunction} that is called
+     * @param returning where the caller continues once the call returns
+     * @param callee where the callee is on the stack, the result takes its place
+     * @param fp the frame pointer of the caller
+     * @param paren the token of the call, for errors
+     */
+    private void enter(BCompiledFunction function, int returning, int callee, int fp, BToken paren) {
+        if (this.frames == BInterpreter.MAX_FRAMES) throw new BRuntimeException(paren, "Stack overflow.");
+        if (this.frames == this.callers.length) {
+            int size = this.frames * 2;
+            this.callers = Arrays.copyOf(this.callers, size);
+            this.returns = Arrays.copyOf(this.returns, size);
+            this.pointers = Arrays.copyOf(this.pointers, size);
+            this.bases = Arrays.copyOf(this.bases, size);
+        }
+
+        int size = this.function != null ? this.function.getMaxLocals() : this.chunk.getMaxLocals();
+        this.callers[this.frames] = this.function;
+        this.returns[this.frames] = returning;
+        this.pointers[this.frames] = fp;
+        this.bases[this.frames] = this.base;
+        this.frames++;
+
+        this.base = callee;
+        this.reuse(function, fp + size);
+    }
+
+    /**
+     * Run a function in the frame at a frame pointer, making room for its
+     * locals and its stack
+     */
+    private void reuse(BCompiledFunction function, int fp) {
+        this.function = function;
+        this.fp = fp;
+        if (this.locals.length < fp + function.getMaxLocals()) this.locals = Arrays.copyOf(this.locals, Math.max(this.locals.length * 2, fp + function.getMaxLocals()));
+
+        int stack = this.base + function.getMaxStack() + 1;
+        if (this.stack.length < stack) this.stack = Arrays.copyOf(this.stack, Math.max(this.stack.length * 2, stack));
+    }
+
+    /**
+     * Pop the frame of the running function and push its result for the caller
+     *
+     * @param result what the function returned
+     * @return where the caller continues
+     */
+    private int leave(Object result) {
+        this.sp = this.base;
+        this.stack[this.sp++] = result;
+
+        this.frames--;
+        this.function = this.callers[this.frames];
+        this.callers[this.frames] = null;
+        this.fp = this.pointers[this.frames];
+        this.base = this.bases[this.frames];
+        return this.returns[this.frames];
+    }
+
+    /**
+     * @return the chunk the running code belongs to
+     */
+    private BChunk running() {
+        return this.function != null ? this.function.getChunk() : this.chunk;
+    }
+
+    private void pause(int pc, int sp, int fp, long fuel) {
+        this.pc = pc;
+        this.sp = sp;
+        this.fp = fp;
+        if (this.context.isFuelLimited()) this.context.setFuel(fuel);
+    }
+
+    private int operand(byte[] code, int pc) {
+        return ((code[pc] & 0xFF) << 8) | (code[pc + 1] & 0xFF);
+    }
+
+}
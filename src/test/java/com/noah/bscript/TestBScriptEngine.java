@@ -1,15 +1,81 @@
 package com.noah.bscript;
 
+import com.noah.bscript.binary.BBinaryReader;
+import com.noah.bscript.binary.BBinaryWriter;
+import com.noah.bscript.exceptions.BRuntimeException;
 import com.noah.bscript.exceptions.BScriptException;
+import com.noah.bscript.host.BCallSite;
+import com.noah.bscript.host.BHostFunction;
+import com.noah.bscript.jit.BJitCompiler;
+import com.noah.bscript.lang.BExpression;
+import com.noah.bscript.lang.BStatement;
+import com.noah.bscript.lang.BSymbolTable;
+import com.noah.bscript.lang.BToken;
+import com.noah.bscript.lang.BTokenBuffer;
+import com.noah.bscript.metrics.BEngineMetrics;
+import com.noah.bscript.metrics.BHistogram;
+import com.noah.bscript.output.BAsyncSink;
+import com.noah.bscript.output.BBufferedSink;
+import com.noah.bscript.output.BCollectingSink;
+import com.noah.bscript.output.BOutputSink;
+import com.noah.bscript.profiler.BProfileEntry;
+import com.noah.bscript.profiler.BProfiler;
+import com.noah.bscript.runtime.BEnvironment;
+import com.noah.bscript.runtime.BInterpreter;
+import com.noah.bscript.runtime.BLexer;
+import com.noah.bscript.runtime.BOptimizer;
+import com.noah.bscript.runtime.BParser;
+import com.noah.bscript.runtime.BResolver;
 import com.noah.bscript.tools.BAstPrinter;
+import com.noah.bscript.utils.ByteBufferReader;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TestBScriptEngine {
 
     public static final BScriptEngine ENGINE = new BScriptEngine();
+    public static final String[] CORPUS = {
+            "scripts/scoping.bscript",
+            "scripts/control.bscript",
+            "scripts/short_circuit.bscript",
+            "scripts/loop.bscript",
+            "scripts/specialization.bscript"
+    };
 
     @Test
     void loadInvalidScripts() {
@@ -69,4 +135,768 @@ public class TestBScriptEngine {
         });
     }
 
+    @Test
+    void testSpecialization() {
+        BScript script = ENGINE.load(new File("scripts/specialization.bscript"));
+        assertEquals("1.01.01.0ss2.0\nreset3.0\n", capture(script::run).replace("\r\n", "\n"));
+    }
+
+    @Test
+    void testStreamingLexer() throws IOException {
+        StringBuilder large = new StringBuilder("/* long\ncomment */ let s = \"h\u00e9llo \u2603\";\n");
+        for (int i = 0; i < 5000; i++) large.append("s = s + \"").append(i).append("\"; // ").append(i).append('\n');
+
+        List<String> sources = new ArrayList<>();
+        for (String path : CORPUS) sources.add(Files.readString(new File(path).toPath()));
+        sources.add(large.toString());
+        // a code point outside the BMP that starts in the last char of the first buffer, inside the first token
+        sources.add("\"" + "a".repeat(8190) + "\uD83D\uDE00" + "b".repeat(100) + "\";");
+
+        for (String source : sources) {
+            BScript script = new BScript(new File("streaming.bscript"));
+            List<BToken> expected = new BLexer(script, source).tokenize();
+            ByteBuffer bytes = ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8));
+            List<BToken> streamed = new BLexer(script, new ByteBufferReader(bytes)).tokenize();
+
+            assertEquals(expected.size(), streamed.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getType(), streamed.get(i).getType());
+                assertEquals(expected.get(i).getLexeme(), streamed.get(i).getLexeme());
+                assertEquals(expected.get(i).getLiteral(), streamed.get(i).getLiteral());
+                assertEquals(expected.get(i).getPosition(), streamed.get(i).getPosition());
+            }
+        }
+    }
+
+    @Test
+    void testTokenBuffer() throws IOException {
+        for (String path : CORPUS) {
+            File file = new File(path);
+            String source = Files.readString(file.toPath());
+            BScript script = new BScript(file);
+
+            List<BToken> tokens = new BLexer(script, source).tokenize();
+            BTokenBuffer buffer = new BLexer(script, source).tokenizeBuffer();
+            assertEquals(tokens.size(), buffer.size(), path);
+            for (int i = 0; i < tokens.size(); i++) {
+                assertEquals(tokens.get(i).getType(), buffer.type(i));
+                assertEquals(tokens.get(i).getPosition(), buffer.line(i));
+                assertEquals(tokens.get(i).getLiteral(), buffer.token(i).getLiteral());
+                if (buffer.type(i) != BToken.Type.EOF) assertEquals(tokens.get(i).getLexeme(), buffer.lexeme(i).toString());
+            }
+
+            List<BStatement> statements = new BParser(script, new BLexer(script, source).tokenizeBuffer()).parse();
+            statements = new BOptimizer().optimize(statements);
+            new BResolver().resolve(statements);
+            assertEquals(capture(ENGINE.load(file)::run), capture(new BScript(file, statements)::run), path);
+        }
+    }
+
+    @Test
+    void testSymbols() {
+        int symbol = BSymbolTable.intern("someName");
+        assertEquals(symbol, BSymbolTable.intern("someName".toCharArray(), 0, 8));
+        assertEquals("someName", BSymbolTable.name(symbol));
+        assertNull(BSymbolTable.keyword(symbol));
+        assertEquals(BToken.Type.WHILE, BSymbolTable.keyword(BSymbolTable.intern("while")));
+
+        List<BToken> tokens = new BLexer(new BScript(new File("symbols.bscript")), "let someName = 1; someName = someName;").tokenize();
+        assertEquals(symbol, tokens.get(1).getSymbol());
+        assertEquals(symbol, tokens.get(5).getSymbol());
+        assertSame(tokens.get(1).getLexeme(), tokens.get(5).getLexeme());
+
+        BEnvironment globals = new BEnvironment();
+        for (int i = 0; i < 1000; i++) globals.define("global" + i, (double)i);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((double)i, globals.get(new BToken(BToken.Type.IDENTIFIER, "global" + i, null, 1)));
+        }
+        assertThrows(BRuntimeException.class, () -> globals.get(new BToken(BToken.Type.IDENTIFIER, "missing", null, 1)));
+
+        assertEquals(symbol, BSymbolTable.lookup("someName"));
+        assertEquals((double)7, new BEnvironment(globals).get("global7"));
+        assertNull(globals.get("neverInterned"));
+        assertEquals(-1, BSymbolTable.lookup("neverInterned"));
+    }
+
+    @Test
+    void testStringBuilding() {
+        BScript script = new BScript(new File("strings.bscript"));
+        script.load(new StringReader("let a = \"x\" + \"y\"; let b = a + 1; let c = a + \"2\"; let same = b == \"xy1.0\";"
+                + "let s = \"\"; for (let i = 0; i < 50000; i = i + 1) s = s + \"x\";"));
+        script.run();
+
+        assertEquals("xy1.0", script.get("b"));
+        assertEquals("xy2", script.get("c"));
+        assertEquals("xy", script.get("a"));
+        assertEquals(true, script.get("same"));
+        assertEquals("x".repeat(50000), script.get("s"));
+    }
+
+    @Test
+    void testOptimizer() {
+        BScript script = new BScript(new File("scripts/control.bscript"));
+        List<BStatement> statements = new BParser(script, new BLexer(script, "print (12 + (15 / 2.5)); if (1 != 1) print 0; else { print !false; }").tokenize()).parse();
+
+        BOptimizer optimizer = new BOptimizer();
+        List<BStatement> optimized = optimizer.optimize(statements);
+
+        assertEquals(2, optimized.size());
+        assertEquals(18.0, ((BExpression.Literal)((BStatement.Print)optimized.get(0)).getExpression()).getValue());
+        assertEquals(true, ((BExpression.Literal)((BStatement.Print)optimized.get(1)).getExpression()).getValue());
+        assertEquals(14, optimizer.getEliminated());
+        assertEquals(14, program("print (12 + (15 / 2.5)); if (1 != 1) print 0; else { print !false; }").getEliminated());
+    }
+
+    @Test
+    void testCache() throws IOException {
+        BScriptEngine engine = new BScriptEngine();
+        File file = Files.createTempFile("cached", BScriptEngine.FILE_EXTENSION).toFile();
+        file.deleteOnExit();
+
+        Files.writeString(file.toPath(), "print 1;");
+        assertEquals("1.0", capture(engine.load(file)::run).trim());
+        assertEquals("1.0", capture(engine.load(file)::run).trim());
+        assertEquals(1, engine.getCache().getMisses());
+        assertEquals(1, engine.getCache().getHits());
+
+        Files.writeString(file.toPath(), "print 22;");
+        assertEquals("22.0", capture(engine.load(file)::run).trim());
+        assertEquals(2, engine.getCache().getMisses());
+
+        engine.getCache().invalidate(file);
+        assertEquals(0, engine.getCache().size());
+    }
+
+    @Test
+    void testFlightRecorderEvents() throws Exception {
+        Path dump = Files.createTempFile("bscript", ".jfr");
+        File file = Files.createTempFile("recorded", BScriptEngine.FILE_EXTENSION).toFile();
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "let x = 1;\nprint x + (2 * 3);\n");
+
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("Load", "Parse", "Run")) recording.enable("com.noah.bscript." + name).withThreshold(Duration.ZERO);
+            recording.enable("com.noah.bscript.Engine").with("period", "endChunk");
+            recording.start();
+
+            BScriptEngine engine = new BScriptEngine();
+            capture(engine.load(file)::run);
+            engine.load(file);
+            try (BScheduler scheduler = new BScheduler(1)) {
+                scheduler.submit(engine.load(file).getProgram(), new BContext(BOutputSink.DISCARD)).get(10, TimeUnit.SECONDS);
+            }
+
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        Map<String, List<RecordedEvent>> events = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump)) events.computeIfAbsent(event.getEventType().getName(), key -> new ArrayList<>()).add(event);
+        Files.delete(dump);
+
+        List<RecordedEvent> loads = events.get("com.noah.bscript.Load");
+        assertEquals(3, loads.size());
+        assertFalse(loads.get(0).getBoolean("cached"));
+        assertTrue(loads.get(1).getBoolean("cached"));
+        assertEquals(2, loads.get(0).getInt("statements"));
+        assertEquals(3, loads.get(0).getInt("eliminated"));
+
+        RecordedEvent parse = events.get("com.noah.bscript.Parse").get(0);
+        assertEquals(file.getPath(), parse.getString("path"));
+        assertEquals(15, parse.getInt("tokens"));
+
+        List<RecordedEvent> runs = events.get("com.noah.bscript.Run");
+        assertEquals(List.of("INTERPRETER", "VIRTUAL_MACHINE"), runs.stream().map(run -> run.getString("backend")).sorted().collect(Collectors.toList()));
+        for (RecordedEvent run : runs) assertFalse(run.getBoolean("failed"));
+        assertTrue(events.containsKey("com.noah.bscript.Engine"));
+    }
+
+    @Test
+    void testCompiledFormat() throws IOException {
+        for (String path : CORPUS) {
+            File file = new File(path);
+            byte[] source = Files.readAllBytes(file.toPath());
+            BScript parsed = ENGINE.load(file);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new BBinaryWriter().write(out, source, parsed.getStatements());
+            byte[] compiled = out.toByteArray();
+
+            List<BStatement> statements = new BBinaryReader().read(compiled, source);
+            new BResolver().resolve(statements);
+            assertEquals(capture(parsed::run), capture(new BScript(file, statements)::run), path);
+
+            compiled[compiled.length - 1] ^= 1;
+            assertThrows(IOException.class, () -> new BBinaryReader().read(compiled, source));
+            assertThrows(IOException.class, () -> new BBinaryReader().read(out.toByteArray(), "print 1;".getBytes()));
+        }
+
+        File file = Files.createTempFile("compiled", BScriptEngine.FILE_EXTENSION).toFile();
+        Files.writeString(file.toPath(), "let a = 2; print a * 21;");
+        File compiled = new BScriptEngine().compile(file);
+        try {
+            assertTrue(compiled.isFile());
+            assertEquals("42.0", capture(new BScriptEngine().load(file)::run).trim());
+        } finally {
+            compiled.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    void testLoadAll() throws IOException {
+        Path directory = Files.createTempDirectory("scripts");
+        try {
+            Files.createDirectories(directory.resolve("nested"));
+            for (int i = 0; i < 32; i++) Files.writeString(directory.resolve("nested/script" + i + BScriptEngine.FILE_EXTENSION), "print " + i + ";");
+            Files.writeString(directory.resolve("broken" + BScriptEngine.FILE_EXTENSION), "let = 1;\nprint (;");
+            Files.writeString(directory.resolve("notes.txt"), "not a script");
+
+            BLoadResult result = new BScriptEngine().loadAll(directory, new ForkJoinPool(4));
+            assertEquals(32, result.getScripts().size());
+            assertEquals(1, result.getFailures().size());
+            assertFalse(result.isSuccessful());
+
+            List<BDiagnostic> diagnostics = result.getFailures().get(directory.resolve("broken" + BScriptEngine.FILE_EXTENSION).toFile());
+            assertEquals(2, diagnostics.size());
+            assertEquals("Expected variable name.", diagnostics.get(0).getMessage());
+
+            BScript script = result.getScripts().get(directory.resolve("nested/script7" + BScriptEngine.FILE_EXTENSION).toFile());
+            assertEquals("7.0", capture(script::run).trim());
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void testVirtualMachine() {
+        assertBackendMatches(BScript.Backend.VIRTUAL_MACHINE);
+    }
+
+    @Test
+    void testJvmBackend() {
+        for (String path : CORPUS) {
+            BScript script = ENGINE.load(new File(path));
+            assertDoesNotThrow(() -> new BJitCompiler().compile(script.getStatements()), path);
+        }
+        assertBackendMatches(BScript.Backend.JVM);
+    }
+
+    @Test
+    void testConcurrentRuns() throws Exception {
+        for (String path : CORPUS) {
+            BProgram program = ENGINE.load(new File(path)).getProgram();
+            String expected = capture(() -> program.run(new BContext()));
+
+            for (BScript.Backend backend : BScript.Backend.values()) {
+                List<Callable<String>> runs = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    runs.add(() -> {
+                        ByteArrayOutputStream output = new ByteArrayOutputStream();
+                        program.run(backend, new BContext(new PrintStream(output, true)));
+                        return output.toString();
+                    });
+                }
+
+                ExecutorService executor = Executors.newFixedThreadPool(4);
+                try {
+                    for (Future<String> run : executor.invokeAll(runs)) assertEquals(expected, run.get(), path + " " + backend);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    void testScheduler() throws Exception {
+        BProgram forever = program("let x = 0; for (;;) x = x + 1;");
+        BProgram finite = program("let total = 0; for (let i = 0; i < 1000; i = i + 1) total = total + i; print total;");
+
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BContext limited = new BContext(new PrintStream(new ByteArrayOutputStream(), true));
+            limited.setFuel(500);
+            forever.run(backend, limited);
+            assertTrue(limited.isFailed(), backend.name());
+        }
+
+        BProgram blocks = program("let i = 0; while (i < 10) { i = i + 1; { let x = i; } }\n"
+                + "for (let j = 0; j < 5; j = j + 1) if (j > 2) { print j; }");
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BContext budgeted = new BContext(BOutputSink.DISCARD);
+            budgeted.setFuel(1000);
+            blocks.run(backend, budgeted);
+            assertEquals(1000 - 3 * 10 - 5, budgeted.getFuel(), backend.name());
+        }
+
+        try (BScheduler scheduler = new BScheduler(1, 1000)) {
+            ByteArrayOutputStream hotOutput = new ByteArrayOutputStream();
+            BContext hot = new BContext(new PrintStream(hotOutput, true));
+            hot.setFuel(1_000_000);
+            CompletableFuture<BContext> hotRun = scheduler.submit(forever, hot);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            CompletableFuture<BContext> run = scheduler.submit(finite, new BContext(new PrintStream(output, true)));
+
+            assertFalse(run.get(10, TimeUnit.SECONDS).isFailed());
+            assertEquals("499500.0", output.toString().trim());
+
+            StringWriter written = new StringWriter();
+            scheduler.submit(program("for (let i = 0; i < 3; i = i + 1) print i;"), new BContext(new BBufferedSink(written))).get(10, TimeUnit.SECONDS);
+            assertEquals("0.0\n1.0\n2.0\n", written.toString().replace("\r\n", "\n"));
+
+            assertTrue(hotRun.get(10, TimeUnit.SECONDS).isFailed());
+            assertTrue(hotOutput.toString().contains("Execution budget exhausted."));
+            assertEquals(0, hot.getFuel());
+        }
+
+        BProgram spinning = program("def spin(n) { return spin(n + 1); } spin(0);");
+        BProgram closure = program("{ let x = 0; def add(y) { return x + y; } for (;;) x = add(1); }");
+        try (BScheduler scheduler = new BScheduler(1, 1000)) {
+            assertThrows(BScriptException.class, () -> scheduler.submit(closure, new BContext(BOutputSink.DISCARD)));
+            BContext profiled = new BContext(BOutputSink.DISCARD);
+            profiled.setProfiler(new BProfiler(BProfiler.Mode.INSTRUMENTING));
+            assertThrows(BScriptException.class, () -> scheduler.submit(spinning, profiled));
+
+            CompletableFuture<BContext> spinRun = scheduler.submit(spinning, new BContext(BOutputSink.DISCARD));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            CompletableFuture<BContext> run = scheduler.submit(finite, new BContext(new PrintStream(output, true)));
+            assertFalse(run.get(10, TimeUnit.SECONDS).isFailed());
+            assertEquals("499500.0", output.toString().trim());
+            assertFalse(spinRun.isDone());
+        }
+
+        BScheduler closing = new BScheduler(1, 1000);
+        List<CompletableFuture<BContext>> endless = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            BContext context = new BContext(BOutputSink.DISCARD);
+            context.setFuel(Long.MAX_VALUE - 1);
+            endless.add(closing.submit(forever, context));
+        }
+        closing.close();
+        for (CompletableFuture<BContext> endlessRun : endless) assertThrows(CancellationException.class, () -> endlessRun.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testExecutor() throws Exception {
+        BScript script = new BScript(new File("executor.bscript"));
+        script.load(new StringReader("let doubled = value * 2; let i = 0; while (i < 200) i = i + 1;"));
+
+        try (BScriptExecutor executor = new BScriptExecutor(4, 64, BScriptExecutor.Saturation.BLOCK)) {
+            List<CompletableFuture<BContext>> runs = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) runs.add(executor.submit(script, Map.of("value", (double)i)));
+            for (int i = 0; i < runs.size(); i++) assertEquals(i * 2.0, runs.get(i).get(10, TimeUnit.SECONDS).get("doubled"));
+
+            assertEquals(1000, executor.getCompleted());
+            assertEquals(0, executor.getInFlight());
+            assertEquals(0, executor.getQueued());
+        }
+
+        BScript printing = new BScript(new File("printing.bscript"));
+        printing.load(new StringReader("for (let i = 0; i < 50; i = i + 1) print value;"));
+        BlockingQueue<BCollectingSink> sinks = new LinkedBlockingQueue<>();
+        printing.setOutput(() -> {
+            BCollectingSink sink = new BCollectingSink();
+            sinks.add(sink);
+            return sink;
+        });
+        try (BScriptExecutor executor = new BScriptExecutor(4, 64, BScriptExecutor.Saturation.BLOCK)) {
+            List<CompletableFuture<BContext>> runs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) runs.add(executor.submit(printing, Map.of("value", (double)i)));
+            for (CompletableFuture<BContext> run : runs) run.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(100, sinks.size());
+        for (BCollectingSink sink : sinks) {
+            assertEquals(50, sink.getLines().size());
+            assertEquals(1, sink.getLines().stream().distinct().count());
+        }
+
+        BScript slow = new BScript(new File("slow.bscript"));
+        slow.load(new StringReader("let i = 0; while (i < 5000000) i = i + 1;"));
+        try (BScriptExecutor executor = new BScriptExecutor(1, 1, BScriptExecutor.Saturation.REJECT)) {
+            executor.submit(slow, Map.of());
+            executor.submit(slow, Map.of());
+            CompletableFuture<BContext> rejected = executor.submit(slow, Map.of());
+
+            ExecutionException exception = assertThrows(ExecutionException.class, rejected::get);
+            assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+            assertEquals(1, executor.getInFlight());
+            assertEquals(1, executor.getQueued());
+            assertEquals(1, executor.getRejected());
+        }
+    }
+
+    @Test
+    void testOutputSinks() throws Exception {
+        BProgram program = program("for (let i = 0; i < 3; i = i + 1) print \"line \" + i;");
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BCollectingSink collected = new BCollectingSink();
+            program.run(backend, new BContext(collected));
+            assertEquals(List.of("line 0.0", "line 1.0", "line 2.0"), collected.getLines(), backend.name());
+        }
+
+        StringWriter written = new StringWriter();
+        BBufferedSink buffered = new BBufferedSink(written, 16);
+        buffered.print("short");
+        assertEquals("", written.toString());
+        buffered.print("long enough to go out");
+        assertTrue(written.toString().startsWith("short"));
+        buffered.print("last");
+        buffered.flush();
+        assertEquals(String.join(System.lineSeparator(), "short", "long enough to go out", "last", ""), written.toString());
+
+        BCollectingSink target = new BCollectingSink();
+        try (BAsyncSink async = new BAsyncSink(target, 8)) {
+            BScript script = new BScript(new File("async.bscript"));
+            script.load(new StringReader("for (let i = 0; i < 100; i = i + 1) print i;"));
+            script.setOutput(() -> async);
+            script.run();
+            assertEquals(100, target.getLines().size());
+            assertEquals("99.0", target.getLines().get(99));
+        }
+
+        BCollectingSink kept = new BCollectingSink();
+        boolean[] thrown = {false};
+        BOutputSink failing = value -> {
+            if (!thrown[0]) {
+                thrown[0] = true;
+                throw new IllegalStateException("Target failed.");
+            }
+            kept.print(value);
+        };
+        try (BAsyncSink async = new BAsyncSink(failing, 4)) {
+            async.print("dropped");
+            async.flush();
+            for (int i = 0; i < 20; i++) async.print(i);
+            async.flush();
+            assertEquals(1, async.getDropped());
+            assertEquals(20, kept.getLines().size());
+        }
+
+        BContext discarded = new BContext(BOutputSink.DISCARD);
+        program("let x = 1; print x; print missing;").run(discarded);
+        assertTrue(discarded.isFailed());
+    }
+
+    @Test
+    void testProfiler() throws Exception {
+        BProgram program = program("let total = 0;\nfor (let i = 0; i < 1000; i = i + 1) {\n    total = total + i;\n}\nprint total;\n");
+
+        try (BProfiler profiler = new BProfiler(BProfiler.Mode.INSTRUMENTING)) {
+            for (BScript.Backend backend : BScript.Backend.values()) {
+                BContext context = new BContext(BOutputSink.DISCARD);
+                context.setProfiler(profiler);
+                program.run(backend, context);
+            }
+
+            Map<Integer, Long> counts = new HashMap<>();
+            for (BProfileEntry entry : profiler.getLines()) counts.put(entry.getLine(), entry.getCount());
+            assertEquals(3, (long)counts.get(1));
+            assertEquals(3 * 1000, (long)counts.get(3));
+            assertEquals(3, (long)counts.get(5));
+
+            String collapsed = profiler.toCollapsed();
+            assertTrue(collapsed.contains("program.bscript;for:2;expression:3 "), collapsed);
+            for (String line : collapsed.split("\n")) assertTrue(line.matches("[^ ]+ \\d+"), line);
+        }
+
+        try (BProfiler profiler = new BProfiler(BProfiler.Mode.SAMPLING, Duration.ofNanos(100_000))) {
+            BContext context = new BContext(BOutputSink.DISCARD);
+            context.setProfiler(profiler);
+            program("let i = 0;\nwhile (i < 2000000) i = i + 1;\n").run(context);
+
+            long samples = 0;
+            for (BProfileEntry entry : profiler.getStatements()) {
+                samples += entry.getSamples();
+                assertEquals(0, entry.getCount());
+            }
+            assertTrue(samples > 0);
+            assertTrue(profiler.toCollapsed().contains(";while:2"));
+        }
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        BHistogram histogram = new BHistogram();
+        for (int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+        assertEquals(1000, histogram.getCount());
+        assertTrue(Math.abs(histogram.getPercentile(50) - 500_000) <= 500_000 / 8);
+        assertTrue(Math.abs(histogram.getPercentile(99) - 990_000) <= 990_000 / 8);
+
+        File file = Files.createTempFile("measured", BScriptEngine.FILE_EXTENSION).toFile();
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), "let total = 0;\nfor (let i = 0; i < 100; i = i + 1) total = total + i;\n");
+
+        BScriptEngine engine = new BScriptEngine();
+        BEngineMetrics metrics = engine.enableMetrics();
+        try {
+            BScript script = engine.load(file);
+            script.run();
+            engine.load(file);
+            engine.submit(script, Map.of()).get(10, TimeUnit.SECONDS);
+
+            assertEquals(2, metrics.getScriptsLoaded());
+            assertEquals(0, metrics.getParseFailures());
+            assertEquals(1, metrics.getCacheHits());
+            assertEquals(2, metrics.getRuns());
+            assertEquals(2 * (3 + 100), metrics.getStatementsExecuted());
+            assertTrue(metrics.getRunLatencyP99() > 0);
+            assertEquals(1, metrics.getSlowestScripts().length);
+            assertTrue(metrics.getSlowestScripts()[0].startsWith(file.getPath() + " - 2 runs"));
+
+            Object runs = ManagementFactory.getPlatformMBeanServer().getAttribute(engine.objectName(), "Runs");
+            assertEquals(2L, runs);
+
+            try (BScheduler scheduler = new BScheduler(1)) {
+                BContext context = new BContext(BOutputSink.DISCARD);
+                context.setMetrics(metrics);
+                scheduler.submit(script.getProgram(), context).get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(3, metrics.getRuns());
+        } finally {
+            engine.disableMetrics();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(engine.objectName()));
+    }
+
+    @Test
+    void testHostFunctions() {
+        BProgram program = program("print sqrt(16); print max(2, 7) + 1; print join(\"b\");\n"
+                + "let f = sqrt;\n"
+                + "for (let i = 0; i < 6; i = i + 1) { if (i == 2) f = abs; if (i == 3) f = floor; if (i == 4) f = ceil; if (i == 5) f = signum; print f(0 - 4.5); }");
+        BProgram notFunction = program("let x = 1; print x(2);");
+        BProgram noOverload = program("print sqrt(\"text\");");
+
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BCollectingSink output = new BCollectingSink();
+            BContext context = new BContext(output);
+            for (String name : List.of("sqrt", "max", "abs", "floor", "ceil", "signum")) context.define(name, BHostFunction.of(Math.class, name));
+            context.define("join", BHostFunction.of("a-", "concat"));
+            program.run(backend, context);
+            assertFalse(context.isFailed(), backend.name());
+            assertEquals(List.of("4.0", "8.0", "a-b", "NaN", "NaN", "4.5", "-5.0", "-4.0", "-1.0"), output.getLines(), backend.name());
+
+            output.clear();
+            context = new BContext(output);
+            context.define("sqrt", BHostFunction.of(Math.class, "sqrt"));
+            notFunction.run(backend, context);
+            noOverload.run(backend, context);
+            assertEquals(List.of("In program.bscript:1 - 'Can only call functions.' at ')'",
+                    "In program.bscript:1 - 'No overload of 'sqrt' takes (String).' at ')'"), output.getLines(), backend.name());
+        }
+
+        BCallSite site = new BCallSite(null, 1);
+        for (int i = 0; i < BCallSite.MAX_POLYMORPHISM + 2; i++) assertEquals(2.0, site.call(BHostFunction.of(Math.class, "sqrt"), new Object[] { 4.0 }));
+        assertEquals(BCallSite.MAX_POLYMORPHISM, site.getLinks());
+        assertThrows(BRuntimeException.class, () -> site.call(null, new Object[] { 4.0 }));
+    }
+
+    @Test
+    void testFunctions() throws IOException {
+        File file = new File("scripts/functions.bscript");
+        BScript script = ENGINE.load(file);
+        assertFalse(script.isFailed());
+        assertEquals("40.0\nthis is a stringsome string some other string\ntrue\n", capture(script::run).replace("\r\n", "\n"));
+
+        BProgram program = program("def sum(n, total) { if (n == 0) return total; return sum(n - 1, total + n); }\n"
+                + "def fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+                + "def nothing() { let x = 1; }\n"
+                + "print sum(100000, 0); print fib(15); print nothing(); print sum;\n"
+                + "{ let base = 10; def add(x) { return x + base; } base = 20; print add(5); }\n"
+                + "for (let i = 0; i < 3; i = i + 1) { def twice(x) { while (true) return x * 2; } print twice(i); }");
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BCollectingSink output = new BCollectingSink();
+            BContext context = new BContext(output);
+            program.run(backend, context);
+            assertFalse(context.isFailed(), backend.name());
+            assertEquals(List.of("5.00005E9", "610.0", "null", "<def sum>", "25.0", "0.0", "2.0", "4.0"), output.getLines(), backend.name());
+        }
+
+        BProgram compiled = program("def fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n"
+                + "def early(n) { for (let i = 0; i < 10; i = i + 1) { if (i == n) return i * 10; } return -1; }\n"
+                + "def down(n) { return 1 + down(n - 1); }\n"
+                + "print fib(15); print early(3); print early(20); print down(0);");
+        assertNotNull(compiled.getChunk());
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BCollectingSink output = new BCollectingSink();
+            BContext context = new BContext(output);
+            compiled.run(backend, context);
+            assertEquals(List.of("610.0", "30.0", "-1.0", "In program.bscript:3 - 'Stack overflow.' at ')'"), output.getLines(), backend.name());
+        }
+
+        BProgram deep = program("def d(n) { if (n == 0) return 0; return 1 + d(n - 1); }\n"
+                + "print d(" + (BInterpreter.MAX_FRAMES - 1) + "); print d(10000);");
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BCollectingSink output = new BCollectingSink();
+            deep.run(backend, new BContext(output));
+            assertEquals(List.of((BInterpreter.MAX_FRAMES - 1) + ".0", "In program.bscript:1 - 'Stack overflow.' at ')'"), output.getLines(), backend.name());
+        }
+
+        BCollectingSink output = new BCollectingSink();
+        program("def f(x) { return x; } print f(1, 2);").run(new BContext(output));
+        program("def down(n) { return 1 + down(n - 1); } print down(0);").run(new BContext(output));
+        BContext limited = new BContext(output);
+        limited.setFuel(1000);
+        program("def spin(n) { return spin(n + 1); } spin(0);").run(limited);
+        assertEquals(List.of("In program.bscript:1 - 'Expected 1 arguments but got 2.' at ')'",
+                "In program.bscript:1 - 'Stack overflow.' at ')'",
+                "In program.bscript - 'Execution budget exhausted.'"), output.getLines());
+
+        BScript invalid = new BScript(new File("invalid.bscript"));
+        invalid.load(new StringReader("return 1;"));
+        assertTrue(invalid.isFailed());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] source = Files.readAllBytes(file.toPath());
+        new BBinaryWriter().write(out, source, script.getStatements());
+        List<BStatement> statements = new BBinaryReader().read(out.toByteArray(), source);
+        new BResolver().resolve(statements);
+        assertEquals(capture(script::run), capture(new BScript(file, statements)::run));
+    }
+
+    @Test
+    void testCountingLoops() {
+        BProgram program = program("for (let i = 10; i > 0; i = i - 3) print i;\n"
+                + "let n = 5; for (let i = 0; i < n; i = i + 1) { n = n - 1; print i; }\n"
+                + "for (let i = 0; i < 10; i = i + 1) { i = i + 4; print i; }\n"
+                + "for (let i = 0; i <= 1; i = i + 0.25) print i;\n"
+                + "let total = 0; for (let i = 0; i < 2000; i = i + 1) { let square = i * i; total = total + square; } print total;");
+        for (BScript.Backend backend : BScript.Backend.values()) {
+            BCollectingSink output = new BCollectingSink();
+            program.run(backend, new BContext(output));
+            assertEquals(List.of("10.0", "7.0", "4.0", "1.0", "0.0", "1.0", "2.0", "4.0", "9.0",
+                    "0.0", "0.25", "0.5", "0.75", "1.0", "2.664667E9"), output.getLines(), backend.name());
+        }
+
+        BCollectingSink output = new BCollectingSink();
+        program("def first(n) { for (let i = 0; i < 100; i = i + 1) if (i * i > n) return i; return null; } print first(50);\n"
+                + "for (let i = 0; i < 3; i = i + 1) { let x = i; def get() { return x; } print get(); }").run(new BContext(output));
+        assertEquals(List.of("8.0", "0.0", "1.0", "2.0"), output.getLines());
+
+        List<BStatement> statements = program("let total = 0;\n"
+                + "for (let i = 0; i < 10; i = i + 2) total = total + i;\n"
+                + "for (let i = 9; i >= 0; i = i - 1) { let x = 1; }\n"
+                + "for (let i = 0; i < 10; i = i + 1) i = i + 1;\n"
+                + "for (let i = 0; i < 10; i = i + 1) { def f() { return i; } }").getStatements();
+        BStatement.For read = (BStatement.For)statements.get(1);
+        BStatement.For unread = (BStatement.For)statements.get(2);
+        assertEquals(0, read.getCounter());
+        assertEquals(2.0, read.getStep());
+        assertTrue(read.isCounterRead());
+        assertEquals(-1.0, unread.getStep());
+        assertFalse(unread.isCounterRead());
+        assertTrue(((BStatement.Block)unread.getBody()).isReusable());
+        assertEquals(-1, ((BStatement.For)statements.get(3)).getCounter());
+        assertEquals(-1, ((BStatement.For)statements.get(4)).getCounter());
+        assertFalse(((BStatement.Block)((BStatement.For)statements.get(4)).getBody()).isReusable());
+
+        // steady state iterations of the interpreter allocate nothing
+        BProgram loop = program("for (let i = 0; i < 100000; i = i + 1) { let x = 1; x = x * 2; }");
+        loop.run(BScript.Backend.INTERPRETER, new BContext(BOutputSink.DISCARD));
+        long before = BEngineMetrics.allocatedBytes();
+        loop.run(BScript.Backend.INTERPRETER, new BContext(BOutputSink.DISCARD));
+        long allocated = BEngineMetrics.allocatedBytes() - before;
+        if (before >= 0) assertTrue(allocated < 100_000, allocated + " bytes");
+    }
+
+    @Test
+    void testHotReload() throws Exception {
+        Path directory = Files.createTempDirectory("watched");
+        Path file = directory.resolve("live" + BScriptEngine.FILE_EXTENSION);
+        Files.writeString(file, "print 1;");
+
+        BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        BScriptWatcher.Listener listener = new BScriptWatcher.Listener() {
+            @Override
+            public void reloaded(BScript script) {
+                events.add(script);
+            }
+
+            @Override
+            public void rejected(File file, List<BDiagnostic> diagnostics) {
+                events.add(diagnostics);
+            }
+        };
+
+        BScriptEngine engine = new BScriptEngine();
+        try (BScriptWatcher watcher = engine.watch(directory, Duration.ofMillis(50), listener)) {
+            BScript script = watcher.getScript(file.toFile());
+            BCollectingSink output = new BCollectingSink();
+            script.setOutput(() -> output);
+            script.run();
+            BProgram first = script.getProgram();
+
+            // several quick writes are reloaded once, a slow machine may still see the broken one on its own
+            Files.writeString(file, "print 2");
+            Files.writeString(file, "print 2;");
+            int early = 0;
+            Object reloaded;
+            while ((reloaded = events.poll(10, TimeUnit.SECONDS)) instanceof List) early++;
+            assertSame(script, reloaded);
+            script.run();
+            assertNotSame(first, script.getProgram());
+
+            // a broken edit is rolled back to the last version that loaded
+            Files.writeString(file, "print ;");
+            Object rejected = events.poll(10, TimeUnit.SECONDS);
+            assertTrue(rejected instanceof List, String.valueOf(rejected));
+            assertTrue(watcher.getErrors().containsKey(file.toFile().getAbsoluteFile()));
+            script.run();
+
+            // runs that already have the old program finish with it
+            first.run(BScript.Backend.INTERPRETER, new BContext(output));
+
+            Path created = directory.resolve("created" + BScriptEngine.FILE_EXTENSION);
+            Files.writeString(created, "print 3;");
+            BScript added = (BScript)events.poll(10, TimeUnit.SECONDS);
+            assertEquals(created.toFile().getAbsoluteFile(), added.getFile());
+
+            Files.writeString(file, "print 4;");
+            assertSame(script, events.poll(10, TimeUnit.SECONDS));
+            assertTrue(watcher.getErrors().isEmpty());
+            script.run();
+
+            assertEquals(List.of("1.0", "2.0", "2.0", "1.0", "4.0"), output.getLines());
+            assertEquals(2, watcher.getScripts().size());
+            assertEquals(3, watcher.getReloads());
+            assertEquals(1 + early, watcher.getRejections());
+            assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    static BProgram program(String source) {
+        BScript script = new BScript(new File("program.bscript"));
+        script.load(new StringReader(source));
+        assertFalse(script.isFailed());
+        return script.getProgram();
+    }
+
+    static void assertBackendMatches(BScript.Backend backend) {
+        for (String path : CORPUS) {
+            BScript interpreted = ENGINE.load(new File(path));
+            BScript compiled = ENGINE.load(new File(path));
+            compiled.setBackend(backend);
+
+            assertEquals(capture(interpreted::run), capture(compiled::run), path);
+        }
+    }
+
+    static String capture(Runnable runnable) {
+        PrintStream previous = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(output, true));
+            runnable.run();
+        } finally {
+            System.setOut(previous);
+        }
+        return output.toString();
+    }
+
 }